@@ -0,0 +1,24 @@
+package net.jonathangiles.tools.sitebuilder.benchmarks;
+
+import net.jonathangiles.tools.sitebuilder.SiteBuilder;
+
+import java.nio.file.Path;
+
+/**
+ * A SiteBuilder that reads its www/ tree from the given directory, rather than from the application classpath.
+ */
+final class BenchmarkSiteBuilder extends SiteBuilder {
+
+    private BenchmarkSiteBuilder() {
+        super();
+    }
+
+    /**
+     * Creates a builder for the site generated under the given root directory (the directory containing 'www').
+     */
+    static BenchmarkSiteBuilder forSite(final Path root) {
+        final BenchmarkSiteBuilder builder = new BenchmarkSiteBuilder();
+        builder.setInputRoot(root);
+        return builder;
+    }
+}
@@ -0,0 +1,83 @@
+package net.jonathangiles.tools.sitebuilder.benchmarks;
+
+import net.jonathangiles.tools.sitebuilder.SiteBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a complete build - init() followed by run() - of a synthetic site. The output is written under a temporary
+ * build directory (rather than target/ under the working directory), and is deleted before each iteration so that every
+ * build writes all of its output, rather than finding it identical to the last build's. Pass {@code -p posts=100000}
+ * to measure larger sites.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BuildBenchmark {
+
+    // SiteBuilder reads the build directory when it is loaded, so it must be set before then
+    private static final Path BUILD_DIR = createBuildDir();
+
+    @Param({"1000", "10000"})
+    public int posts;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private Path root;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Sites.generate(posts);
+    }
+
+    @Setup(Level.Iteration)
+    public void deleteOutput() throws IOException {
+        Sites.delete(SiteBuilder.OUTPUT_DIR.toPath());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Sites.delete(root);
+        Sites.delete(BUILD_DIR);
+    }
+
+    private static Path createBuildDir() {
+        try {
+            final Path buildDir = Files.createTempDirectory("sitebuilder-bench-build-");
+            System.setProperty(SiteBuilder.BUILD_DIR_PROPERTY, buildDir.toString());
+            return buildDir;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Benchmark
+    public void initAndRun() {
+        final BenchmarkSiteBuilder builder = BenchmarkSiteBuilder.forSite(root);
+        builder.setParallelParsing(parallel);
+        builder.setParallelRendering(parallel);
+        builder.init();
+        builder.run();
+    }
+}
@@ -0,0 +1,31 @@
+package net.jonathangiles.tools.sitebuilder.benchmarks;
+
+import java.io.Writer;
+
+/**
+ * A writer that discards what is written to it, only counting the characters, so that benchmarks of code that writes
+ * output are not dominated by the cost of the output itself.
+ */
+final class CountingWriter extends Writer {
+    private long count;
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        count += len;
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        count += len;
+    }
+
+    @Override
+    public void flush() { }
+
+    @Override
+    public void close() { }
+
+    long getCount() {
+        return count;
+    }
+}
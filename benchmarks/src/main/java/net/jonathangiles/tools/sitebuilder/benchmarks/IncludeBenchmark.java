@@ -0,0 +1,83 @@
+package net.jonathangiles.tools.sitebuilder.benchmarks;
+
+import net.jonathangiles.tools.sitebuilder.templates.IncludeGraph;
+import net.jonathangiles.tools.sitebuilder.templates.LegacyTemplating;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares resolving include directives with the legacy approach (a replaceAll per template, over every template)
+ * against the include graph, both for the templates themselves and for a page body that uses includes. The templates
+ * form a chain, each including the one before it, so includes are nested {@code depth} levels deep while the expanded
+ * templates only grow linearly with the depth.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IncludeBenchmark {
+
+    @Param({"10", "50"})
+    public int depth;
+
+    private final Map<String, String> templates = new HashMap<>();
+    private IncludeGraph includeGraph;
+    private String body;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < depth; i++) {
+            final StringBuilder sb = new StringBuilder("<div class=\"t").append(i).append("\">\n");
+            if (i > 0) {
+                sb.append("${include t").append(i - 1).append("}\n");
+            }
+            sb.append("</div>\n");
+            templates.put("t" + i, sb.toString());
+        }
+        includeGraph = IncludeGraph.resolve(templates);
+
+        // the body includes the last template, so it pulls in the whole chain
+        final StringBuilder sb = new StringBuilder("${include t" + (depth - 1) + "}\n");
+        for (int i = 0; i < 200; i++) {
+            sb.append("<p>body text</p>\n");
+        }
+        body = sb.toString();
+    }
+
+    @Benchmark
+    public Map<String, String> legacyProcessTemplates() {
+        final Map<String, String> copy = new HashMap<>(templates);
+        copy.replaceAll((k, v) -> LegacyTemplating.processIncludesDirectives(v, copy));
+        return copy;
+    }
+
+    @Benchmark
+    public IncludeGraph resolveIncludeGraph() {
+        return IncludeGraph.resolve(templates);
+    }
+
+    @Benchmark
+    public String legacyProcessBody() {
+        return LegacyTemplating.processIncludesDirectives(body, templates);
+    }
+
+    @Benchmark
+    public String processBody() {
+        return includeGraph.processIncludes(body);
+    }
+}
@@ -0,0 +1,87 @@
+package net.jonathangiles.tools.sitebuilder.benchmarks;
+
+import net.jonathangiles.tools.sitebuilder.models.input.InputFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures reading each kind of input file - the front matter alone, and the front matter plus the body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InputFileBenchmark {
+
+    private Path root;
+    private File markdownFile;
+    private File htmlFile;
+    private File xmlFile;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Sites.generate(3);
+        try (Stream<Path> files = Files.walk(root.resolve("www/posts"))) {
+            final List<Path> posts = files.filter(Files::isRegularFile).collect(Collectors.toList());
+            markdownFile = find(posts, ".md");
+            htmlFile = find(posts, ".html");
+            xmlFile = find(posts, ".xml");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Sites.delete(root);
+    }
+
+    private static File find(final List<Path> files, final String extension) {
+        final Optional<Path> file = files.stream().filter(p -> p.toString().endsWith(extension)).findFirst();
+        return file.orElseThrow(() -> new IllegalStateException("No " + extension + " file generated")).toFile();
+    }
+
+    @Benchmark
+    public InputFile markdownFrontMatter() {
+        return InputFile.fromMarkdownFile(markdownFile);
+    }
+
+    @Benchmark
+    public String markdownWithBody() {
+        return InputFile.fromMarkdownFile(markdownFile).getBody();
+    }
+
+    @Benchmark
+    public InputFile htmlFrontMatter() {
+        return InputFile.fromHtmlFile(htmlFile);
+    }
+
+    @Benchmark
+    public String htmlWithBody() {
+        return InputFile.fromHtmlFile(htmlFile).getBody();
+    }
+
+    @Benchmark
+    public String xmlWithBody() {
+        return InputFile.fromXmlFile(xmlFile).getBody();
+    }
+}
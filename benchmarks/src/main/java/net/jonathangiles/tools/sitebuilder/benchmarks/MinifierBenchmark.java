@@ -0,0 +1,70 @@
+package net.jonathangiles.tools.sitebuilder.benchmarks;
+
+import net.jonathangiles.tools.sitebuilder.templates.HtmlMinifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the HTML minifier against writing the same page without minification. Throughput in
+ * bytes per second is the score multiplied by the page size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MinifierBenchmark {
+
+    @Param({"10000", "200000"})
+    public int pageSize;
+
+    private String page;
+
+    @Setup
+    public void setup() {
+        final StringBuilder sb = new StringBuilder("<!DOCTYPE html>\n<html>\n  <head>\n    <title>Benchmark</title>\n"
+                + "    <!-- page metadata -->\n    <script type=\"text/javascript\" src=\"/js/site.js\"></script>\n"
+                + "  </head>\n  <body>\n");
+        int i = 0;
+        while (sb.length() < pageSize) {
+            sb.append("    <div class=\"post\">\n      <h2>  Heading ").append(i).append("  </h2>\n")
+                .append("      <p>\n        Some paragraph text, with <a href=\"/posts/").append(i)
+                .append("/\" >a link</a>   and   <em>emphasis</em>.\n      </p>\n");
+            if (i % 5 == 0) {
+                sb.append("      <pre><code>  int x = ").append(i).append(";\n  return x;\n</code></pre>\n");
+            }
+            sb.append("    </div>\n");
+            i++;
+        }
+        page = sb.append("  </body>\n</html>\n").toString();
+    }
+
+    @Benchmark
+    public long minify() throws IOException {
+        final CountingWriter out = new CountingWriter();
+        final HtmlMinifier minifier = new HtmlMinifier(out);
+        minifier.write(page);
+        minifier.finish();
+        return out.getCount();
+    }
+
+    @Benchmark
+    public long baseline() {
+        final CountingWriter out = new CountingWriter();
+        out.write(page, 0, page.length());
+        return out.getCount();
+    }
+}
@@ -0,0 +1,55 @@
+package net.jonathangiles.tools.sitebuilder.benchmarks;
+
+import net.jonathangiles.tools.sitebuilder.models.Post;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures queries against a site that has already been initialised.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SiteBenchmark {
+
+    @Param({"1000", "10000"})
+    public int posts;
+
+    private Path root;
+    private BenchmarkSiteBuilder builder;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Sites.generate(posts);
+        builder = BenchmarkSiteBuilder.forSite(root);
+        builder.init();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Sites.delete(root);
+    }
+
+    @Benchmark
+    public Set<Post> getAllPosts() {
+        return builder.getAllPosts();
+    }
+}
@@ -0,0 +1,28 @@
+package net.jonathangiles.tools.sitebuilder.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+final class Sites {
+    private Sites() { }
+
+    static Path generate(final int posts) throws IOException {
+        final Path root = Files.createTempDirectory("sitebuilder-bench-" + posts + "-");
+        SyntheticSite.generate(root, posts);
+        return root;
+    }
+
+    static void delete(final Path root) throws IOException {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package net.jonathangiles.tools.sitebuilder.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Generates a synthetic www/ tree, of the shape that SiteBuilder expects to find on the classpath, with a configurable
+ * number of posts split evenly between markdown, html and xml, a handful of pages, nested templates and some static
+ * files. The output is deterministic for a given number of posts.
+ */
+public final class SyntheticSite {
+    private static final String[] WORDS = {
+        "static", "site", "builder", "template", "java", "page", "post", "render", "markdown", "content", "build",
+        "output", "include", "header", "footer", "parallel", "cache", "index", "archive", "performance"
+    };
+
+    private final Random random = new Random(42);
+
+    private SyntheticSite() { }
+
+    /**
+     * Generates the site into the given root directory, which will contain a 'www' directory afterwards.
+     */
+    public static void generate(final Path root, final int posts) throws IOException {
+        new SyntheticSite().generateSite(root.resolve("www"), posts);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: SyntheticSite <output dir> <number of posts>");
+            System.exit(1);
+        }
+        generate(Paths.get(args[0]), Integer.parseInt(args[1]));
+    }
+
+    private void generateSite(final Path www, final int posts) throws IOException {
+        generateTemplates(www.resolve("templates"));
+
+        for (int i = 0; i < 10; i++) {
+            write(www.resolve("pages/page-" + i + ".md"), markdown("Page " + i, null, "page-" + i, 3));
+        }
+
+        for (int i = 0; i < posts; i++) {
+            final LocalDate date = LocalDate.of(2000 + i % 20, 1 + i % 12, 1 + i % 28);
+            final Path dir = www.resolve("posts/" + date.getYear());
+            final String title = "Post " + i;
+            final String slug = "post-" + i;
+            switch (i % 3) {
+                case 0:
+                    write(dir.resolve(slug + ".md"), markdown(title, date, slug, 6));
+                    break;
+                case 1:
+                    write(dir.resolve(slug + ".html"), html(title, date, slug, 6));
+                    break;
+                default:
+                    write(dir.resolve(slug + ".xml"), xml(title, date, slug, 6));
+                    break;
+            }
+        }
+
+        for (int i = 0; i < 20; i++) {
+            final byte[] bytes = new byte[1024 * (1 + i)];
+            random.nextBytes(bytes);
+            final Path file = www.resolve("static/assets/file-" + i + ".bin");
+            Files.createDirectories(file.getParent());
+            Files.write(file, bytes);
+        }
+        write(www.resolve("static/css/style.css"), "body { font-family: sans-serif; }\n");
+    }
+
+    private void generateTemplates(final Path templates) throws IOException {
+        write(templates.resolve("meta.html"), "<meta charset=\"utf-8\"><meta name=\"generator\" content=\"sitebuilder\">\n");
+        write(templates.resolve("nav.html"), "<nav><a href=\"/\">Home</a> <a href=\"/posts/\">Posts</a></nav>\n");
+        write(templates.resolve("header.html"), "<!DOCTYPE html>\n<html><head><title>${title}</title>\n${include meta}\n"
+                + "<link rel=\"stylesheet\" href=\"/css/style.css\"></head>\n<body>\n${include nav}\n");
+        write(templates.resolve("copyright.html"), "<p>Copyright 2000 - 2020</p>\n");
+        write(templates.resolve("footer.html"), "<footer>${include copyright}</footer>\n</body></html>\n");
+        write(templates.resolve("post.html"), "${include header}\n<article><h1>${title}</h1><time>${date}</time>\n"
+                + "${content}\n</article>\n${include footer}\n");
+        write(templates.resolve("page.html"), "${include header}\n<main><h1>${title}</h1>\n${content}\n</main>\n"
+                + "${include footer}\n");
+    }
+
+    private String markdown(final String title, final LocalDate date, final String slug, final int paragraphs) {
+        final StringBuilder sb = new StringBuilder("---\n");
+        sb.append("title: ").append(title).append('\n');
+        if (date != null) {
+            sb.append("date: ").append(date).append('\n');
+        }
+        sb.append("slug: ").append(slug).append('\n');
+        sb.append("---\n\n");
+        for (int i = 0; i < paragraphs; i++) {
+            sb.append("## Heading ").append(i).append("\n\n").append(sentence(60)).append(" *emphasis* and **strong** ")
+                .append("with a [link](/posts/2001/post-").append(i).append("/).\n\n");
+            if (i % 3 == 0) {
+                sb.append("```\ncode block ").append(i).append("\n```\n\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private String html(final String title, final LocalDate date, final String slug, final int paragraphs) {
+        final StringBuilder sb = new StringBuilder("<!--\n");
+        sb.append("title: ").append(title).append('\n');
+        sb.append("date: ").append(date).append('\n');
+        sb.append("slug: ").append(slug).append('\n');
+        sb.append("template: post\n");
+        sb.append("-->\n");
+        for (int i = 0; i < paragraphs; i++) {
+            sb.append("<h2>Heading ").append(i).append("</h2>\n<p>").append(sentence(60)).append("</p>\n");
+        }
+        return sb.toString();
+    }
+
+    private String xml(final String title, final LocalDate date, final String slug, final int paragraphs) {
+        final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<post>\n");
+        sb.append("  <Title>").append(title).append("</Title>\n");
+        sb.append("  <Date>").append(date).append("</Date>\n");
+        sb.append("  <Slug>").append(slug).append("</Slug>\n");
+        sb.append("  <Status>publish</Status>\n");
+        sb.append("  <Content><![CDATA[");
+        for (int i = 0; i < paragraphs; i++) {
+            sb.append("<p>").append(sentence(60)).append("</p>\n");
+        }
+        sb.append("]]></Content>\n</post>\n");
+        return sb.toString();
+    }
+
+    private String sentence(final int words) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.append('.').toString();
+    }
+
+    private static void write(final Path file, final String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
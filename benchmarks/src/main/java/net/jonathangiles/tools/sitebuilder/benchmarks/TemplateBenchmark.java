@@ -0,0 +1,91 @@
+package net.jonathangiles.tools.sitebuilder.benchmarks;
+
+import net.jonathangiles.tools.sitebuilder.templates.LegacyTemplating;
+import net.jonathangiles.tools.sitebuilder.templates.Template;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares filling in a page template with the legacy regex approach (one replaceAll per property) against rendering
+ * a precompiled {@link Template}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateBenchmark {
+
+    @Param({"2000", "50000"})
+    public int bodySize;
+
+    private String templateSource;
+    private Template template;
+    private final Map<String, String> properties = new LinkedHashMap<>();
+
+    @Setup
+    public void setup() {
+        final StringBuilder source = new StringBuilder("<!DOCTYPE html>\n<html><head><title>${title}</title></head>\n");
+        for (int i = 0; i < 50; i++) {
+            source.append("<div class=\"block-").append(i).append("\">navigation and layout markup</div>\n");
+        }
+        source.append("<h1>${title}</h1><time>${date}</time>\n<a href=\"${relativePath}\">${slug}</a>\n${content}\n");
+        for (int i = 0; i < 50; i++) {
+            source.append("<div class=\"footer-").append(i).append("\">footer markup</div>\n");
+        }
+        templateSource = source.toString();
+        template = Template.compile(templateSource);
+
+        final StringBuilder body = new StringBuilder();
+        while (body.length() < bodySize) {
+            body.append("<p>Some paragraph text that costs $5, with markup.</p>\n");
+        }
+        properties.put("title", "A benchmark post");
+        properties.put("date", "2020-01-02");
+        properties.put("slug", "benchmark-post");
+        properties.put("relativePath", "posts/2020/benchmark-post");
+        properties.put("fullOutputPath", "target/output/posts/2020/benchmark-post/index.html");
+        properties.put("content", body.toString());
+    }
+
+    @Benchmark
+    public String legacyFillTemplate() {
+        String html = templateSource;
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            html = LegacyTemplating.fillTemplate(html, property.getKey(), property.getValue());
+        }
+        return html;
+    }
+
+    @Benchmark
+    public String compiledRender() {
+        return template.render(properties::get);
+    }
+
+    @Benchmark
+    public long compiledRenderToWriter() throws IOException {
+        final CountingWriter out = new CountingWriter();
+        template.render(properties::get, out);
+        return out.getCount();
+    }
+
+    @Benchmark
+    public Template compile() {
+        return Template.compile(templateSource);
+    }
+}
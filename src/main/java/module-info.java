@@ -8,8 +8,16 @@ module net.jonathangiles.tools.sitebuilder {
     requires com.fasterxml.jackson.datatype.jsr310;
     requires com.fasterxml.jackson.dataformat.xml;
 
+    requires java.xml;
+    requires jdk.httpserver;
+    requires jdk.jfr;
+    requires jdk.management;
+
     exports net.jonathangiles.tools.sitebuilder;
+    exports net.jonathangiles.tools.sitebuilder.build;
+    exports net.jonathangiles.tools.sitebuilder.feeds;
     exports net.jonathangiles.tools.sitebuilder.models;
     exports net.jonathangiles.tools.sitebuilder.models.input;
+    exports net.jonathangiles.tools.sitebuilder.templates;
     exports net.jonathangiles.tools.sitebuilder.util;
 }
\ No newline at end of file
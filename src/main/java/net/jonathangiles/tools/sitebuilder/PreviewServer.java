@@ -0,0 +1,251 @@
+package net.jonathangiles.tools.sitebuilder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.jonathangiles.tools.sitebuilder.models.SiteContent;
+import net.jonathangiles.tools.sitebuilder.templates.AssetResolver;
+import net.jonathangiles.tools.sitebuilder.util.BuildExecutors;
+import net.jonathangiles.tools.sitebuilder.util.SitePaths;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A local HTTP server for previewing the site while it is being edited. Pages are rendered in memory from the content
+ * and templates the {@link SiteBuilder} already holds, when they are requested, and nothing is written to the output
+ * directory. Static files are served straight from www/static. Rendered pages are kept in a least recently used cache
+ * of a fixed size, which {@link SiteWatcher} clears whenever an input changes.
+ */
+class PreviewServer {
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+    static {
+        CONTENT_TYPES.put("html", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("css", "text/css; charset=utf-8");
+        CONTENT_TYPES.put("js", "text/javascript; charset=utf-8");
+        CONTENT_TYPES.put("json", "application/json");
+        CONTENT_TYPES.put("xml", "application/xml");
+        CONTENT_TYPES.put("txt", "text/plain; charset=utf-8");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("webp", "image/webp");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+        CONTENT_TYPES.put("woff", "font/woff");
+        CONTENT_TYPES.put("woff2", "font/woff2");
+        CONTENT_TYPES.put("pdf", "application/pdf");
+    }
+
+    private final SiteBuilder builder;
+    private final Path staticPath;
+    private final long maxCacheSize;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    // slug -> rendered page, least recently requested first, and the total size of the pages in it. The generation is
+    // increased whenever the cache is cleared, so that pages rendered from the old inputs are not added after that
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheSize;
+    private long generation;
+
+    // output path (relative to the output directory, with '/' separators) -> content, and fingerprinted asset path ->
+    // asset path, built when they are first needed after the cache is cleared
+    private Map<String, SiteContent> pagePaths;
+    private Map<String, String> assetPaths;
+
+    PreviewServer(SiteBuilder builder, Path staticPath, long maxCacheSize) {
+        this.builder = builder;
+        this.staticPath = staticPath.toAbsolutePath().normalize();
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    void start(final int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = BuildExecutors.newDefaultExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            try {
+                handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        System.out.println("Previewing at http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Forgets every rendered page, and the paths of all pages and assets, so that they are worked out again from the
+     * builder's current content.
+     */
+    synchronized void invalidate() {
+        cache.clear();
+        cacheSize = 0;
+        generation++;
+        pagePaths = null;
+        assetPaths = null;
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        final String method = exchange.getRequestMethod();
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            sendText(exchange, 405, "Method not allowed");
+            return;
+        }
+
+        final String path = exchange.getRequestURI().getPath();
+        final String relativePath = path.startsWith("/") ? path.substring(1) : path;
+        try {
+            if (servePage(exchange, relativePath.isEmpty() || relativePath.endsWith("/")
+                    ? relativePath + "index.html" : relativePath)) {
+                return;
+            }
+            if (!relativePath.isEmpty() && !relativePath.endsWith("/")
+                    && findPage(relativePath + "/index.html") != null) {
+                // pages are addressed by their directory, and relative links in them rely on the trailing slash
+                exchange.getResponseHeaders().set("Location", path + "/");
+                sendText(exchange, 301, "Moved to " + path + "/");
+                return;
+            }
+            if (serveStaticFile(exchange, relativePath)) {
+                return;
+            }
+            sendText(exchange, 404, "Not found: " + path);
+        } catch (Exception e) {
+            System.err.println("Could not serve " + path + ": " + e);
+            sendText(exchange, 500, "Could not serve " + path + ": " + e);
+        }
+    }
+
+    private boolean servePage(final HttpExchange exchange, final String outputPath) throws IOException {
+        final long renderGeneration;
+        final SiteContent content;
+        byte[] page = null;
+        synchronized (this) {
+            renderGeneration = generation;
+            content = findPage(outputPath);
+            if (content != null) {
+                page = cache.get(content.getSlug());
+            }
+        }
+        if (content == null) {
+            return false;
+        }
+        if (page == null) {
+            page = builder.renderPage(content);
+            cachePage(content.getSlug(), page, renderGeneration);
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", contentType(outputPath));
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        final boolean head = exchange.getRequestMethod().equals("HEAD");
+        exchange.sendResponseHeaders(200, head ? -1 : page.length);
+        if (!head) {
+            exchange.getResponseBody().write(page);
+        }
+        return true;
+    }
+
+    private synchronized void cachePage(final String slug, final byte[] page, final long renderGeneration) {
+        if (renderGeneration != generation || page.length > maxCacheSize) {
+            return;
+        }
+        final byte[] previous = cache.put(slug, page);
+        cacheSize += page.length - (previous == null ? 0 : previous.length);
+
+        final Iterator<byte[]> it = cache.values().iterator();
+        while (cacheSize > maxCacheSize && it.hasNext()) {
+            cacheSize -= it.next().length;
+            it.remove();
+        }
+    }
+
+    private synchronized SiteContent findPage(final String outputPath) {
+        if (pagePaths == null) {
+            pagePaths = new HashMap<>();
+            for (SiteContent content : builder.getAllContent()) {
+                pagePaths.put(SitePaths.createRelativePath(content.getFullOutputPath()).replace(File.separatorChar, '/'),
+                        content);
+            }
+        }
+        return pagePaths.get(outputPath);
+    }
+
+    private boolean serveStaticFile(final HttpExchange exchange, final String relativePath) throws IOException {
+        final Path file = staticPath.resolve(findAsset(relativePath)).normalize();
+        if (!file.startsWith(staticPath) || !Files.isRegularFile(file)) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            exchange.getResponseHeaders().set("Content-Type", contentType(file.getFileName().toString()));
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            final boolean head = exchange.getRequestMethod().equals("HEAD");
+            exchange.sendResponseHeaders(200, head ? -1 : size);
+            if (!head) {
+                // the file is handed to the response in one go, rather than being read through a buffer of our own
+                final OutputStream out = exchange.getResponseBody();
+                final WritableByteChannel target = Channels.newChannel(out);
+                long position = 0;
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, target);
+                }
+            }
+        }
+        return true;
+    }
+
+    // returns the path in www/static of the asset at the given (possibly fingerprinted) path
+    private synchronized String findAsset(final String relativePath) {
+        if (assetPaths == null) {
+            assetPaths = new HashMap<>();
+            final AssetResolver resolver = builder.getAssetResolver();
+            for (String asset : resolver.getPaths()) {
+                assetPaths.put(resolver.getFingerprintedPath(asset), asset);
+            }
+        }
+        return assetPaths.getOrDefault(relativePath, relativePath);
+    }
+
+    private static String contentType(final String fileName) {
+        final int dot = fileName.lastIndexOf('.');
+        final String type = dot < 0 ? null : CONTENT_TYPES.get(fileName.substring(dot + 1).toLowerCase());
+        return type != null ? type : "application/octet-stream";
+    }
+
+    private static void sendText(final HttpExchange exchange, final int status, final String text) throws IOException {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        final boolean head = exchange.getRequestMethod().equals("HEAD");
+        exchange.sendResponseHeaders(status, head ? -1 : bytes.length);
+        if (!head) {
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+}
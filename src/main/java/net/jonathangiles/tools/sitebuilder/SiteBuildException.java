@@ -0,0 +1,30 @@
+package net.jonathangiles.tools.sitebuilder;
+
+import java.util.Map;
+
+/**
+ * Thrown when one or more pieces of content could not be built. Rather than failing on the first problem, the build
+ * carries on and reports every failure, keyed by the slug (or path) of the content that failed.
+ */
+public class SiteBuildException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, Throwable> failures;
+
+    public SiteBuildException(String message, Map<String, Throwable> failures) {
+        super(createMessage(message, failures));
+        this.failures = failures;
+        failures.values().forEach(this::addSuppressed);
+    }
+
+    public Map<String, Throwable> getFailures() {
+        return failures;
+    }
+
+    private static String createMessage(String message, Map<String, Throwable> failures) {
+        final StringBuilder sb = new StringBuilder(message);
+        failures.forEach((key, failure) -> sb.append("\n  ").append(key).append(": ").append(failure));
+        return sb.toString();
+    }
+}
@@ -1,19 +1,56 @@
 package net.jonathangiles.tools.sitebuilder;
 
+import net.jonathangiles.tools.sitebuilder.build.ArchiveWriter;
+import net.jonathangiles.tools.sitebuilder.build.AssetManifest;
+import net.jonathangiles.tools.sitebuilder.build.BuildManifest;
+import net.jonathangiles.tools.sitebuilder.build.BuildReport;
+import net.jonathangiles.tools.sitebuilder.build.LinkChecker;
+import net.jonathangiles.tools.sitebuilder.build.OutputIndex;
+import net.jonathangiles.tools.sitebuilder.build.Precompressor;
+import net.jonathangiles.tools.sitebuilder.build.StaticResourceSync;
+import net.jonathangiles.tools.sitebuilder.feeds.FeedWriter;
+import net.jonathangiles.tools.sitebuilder.feeds.SitemapWriter;
 import net.jonathangiles.tools.sitebuilder.models.*;
 
 import static net.jonathangiles.tools.sitebuilder.util.FileUtils.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
-import java.util.regex.Pattern;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import net.jonathangiles.tools.sitebuilder.models.input.InputFile;
+import net.jonathangiles.tools.sitebuilder.models.input.ParseCache;
+import net.jonathangiles.tools.sitebuilder.models.input.WxrFile;
+import net.jonathangiles.tools.sitebuilder.templates.AssetResolver;
+import net.jonathangiles.tools.sitebuilder.templates.HtmlMinifier;
+import net.jonathangiles.tools.sitebuilder.templates.IncludeGraph;
+import net.jonathangiles.tools.sitebuilder.templates.LegacyTemplating;
+import net.jonathangiles.tools.sitebuilder.templates.Template;
+import net.jonathangiles.tools.sitebuilder.util.BuildExecutors;
+import net.jonathangiles.tools.sitebuilder.util.Hashing;
+import net.jonathangiles.tools.sitebuilder.util.IOConsumer;
+import net.jonathangiles.tools.sitebuilder.util.WriteResult;
 import net.jonathangiles.tools.sitebuilder.util.SitePaths;
 
 /**
@@ -21,17 +58,138 @@ import net.jonathangiles.tools.sitebuilder.util.SitePaths;
  */
 public abstract class SiteBuilder {
 
-    private enum ContentType { PAGE, POST }
+    enum ContentType { PAGE, POST }
 
-    public static final String OUTPUT_PATH = "target/output";
+    /**
+     * The system property giving the directory that the output, and everything kept between builds, is written under.
+     * It defaults to 'target', under the working directory, and is read once, when this class is loaded.
+     */
+    public static final String BUILD_DIR_PROPERTY = "sitebuilder.buildDir";
+    public static final String BUILD_DIR = System.getProperty(BUILD_DIR_PROPERTY, "target");
+
+    public static final String OUTPUT_PATH = BUILD_DIR + "/output";
     public static final File OUTPUT_DIR = new File(OUTPUT_PATH);
+    public static final Path MANIFEST_PATH = Paths.get(BUILD_DIR, "build-manifest.json");
+    public static final Path BUILD_REPORT_PATH = Paths.get(BUILD_DIR, "build-report.json");
+    public static final Path ASSET_MANIFEST_PATH = Paths.get(BUILD_DIR, "asset-manifest.json");
+    public static final Path PARSE_CACHE_PATH = Paths.get(BUILD_DIR, "parse-cache");
+    public static final Path OUTPUT_INDEX_PATH = Paths.get(BUILD_DIR, "output-index.json");
+    public static final Path PRECOMPRESSION_SKIPS_PATH = Paths.get(BUILD_DIR, "precompression-skips.json");
 
     private final ClassLoader loader;
 
+    // the directory holding the www directory, or null if it is found on the classpath
+    private Path inputRoot;
+
     private Map<String, String> templates = new HashMap<>();
 
+    // the include directives between templates, resolved once all templates are loaded
+    private IncludeGraph includeGraph;
+
+    // templates parsed into literal / field segments, created once all include directives have been processed.
+    // This map is never modified after init(), so it is safe to read from the rendering threads.
+    private Map<String, Template> compiledTemplates = Collections.emptyMap();
+
+    // when true, pages are rendered with the old regex-based fillTemplate approach, so output can be compared
+    private boolean legacyTemplating = false;
+
+    // when true, pages are rendered / content files are parsed on the executor (or a default executor, if that is
+    // null)
+    private boolean parallelRendering = false;
+    private boolean parallelParsing = false;
+    private ExecutorService executor;
+
+    // when true, pages and static files whose inputs match those recorded in the previous build's manifest are
+    // skipped, and outputs that the previous build produced but this build does not are removed
+    private boolean incrementalBuild = false;
+    private BuildManifest previousManifest = new BuildManifest();
+    private BuildManifest manifest = new BuildManifest();
+    private final AtomicInteger unchangedPages = new AtomicInteger();
+
+    // when true, a rendered page that is identical to the existing output is not written, so its modification time is
+    // kept and tools that sync the output (such as rsync or CDN uploads) see it as unchanged
+    private boolean skipIdenticalWrites = true;
+    private OutputIndex outputIndex;
+    private final AtomicInteger writtenPages = new AtomicInteger();
+    private final AtomicInteger identicalPages = new AtomicInteger();
+
+    // when set, static files are synced into the output directory in parallel, skipping files that are up to date
+    private StaticResourceSync.Mode staticSyncMode;
+    private int staticSyncConcurrency = 4;
+
+    // when true, rendered html pages are minified as they are written
+    private boolean minifyHtml = false;
+    private final AtomicLong minifiedBytesIn = new AtomicLong();
+    private final AtomicLong minifiedBytesOut = new AtomicLong();
+
+    // when true, gzip compressed copies of text outputs are written next to them, in the background, as they are
+    // produced
+    private boolean precompression = false;
+    private long precompressionMinSize = 1024;
+    private Precompressor precompressor;
+
+    // when true, every static file is also written under a name that includes its content hash, which ${asset ...}
+    // directives resolve to
+    private boolean assetFingerprinting = false;
+    private AssetManifest assetManifest;
+    private AssetResolver assetResolver = new AssetResolver(null);
+    private String assetsHash = "";
+
+    // when true, the front matter and rendered body of every content file is cached on disk, and read back from there
+    // (rather than being parsed again) while the file is unchanged
+    private boolean parseCaching = false;
+    private long parseCacheMaxSize = ParseCache.DEFAULT_MAX_SIZE;
+    private ParseCache parseCache;
+
+    // when true, the bodies of pages and posts read from files are not kept in memory, but are read again (from the
+    // file, or the parse cache) whenever they are needed
+    private boolean lowMemory = false;
+
+    // in low memory mode, the files that the bodies of the items in each WordPress export are spilled to
+    private final Map<Path, WxrFile.BodySpill> wxrSpills = new ConcurrentHashMap<>();
+
+    // when set, the output of each build is written into this zip or tar archive, rather than the output directory
+    private Path archivePath;
+    private ArchiveWriter archive;
+
+    // when true, the internal links in every rendered page are checked against the outputs of the build, which fails if
+    // any are broken and failOnBrokenLinks is also true
+    private boolean linkChecking = false;
+    private boolean failOnBrokenLinks = false;
+    private LinkChecker linkChecker;
+
+    // when true, files in the output directory that were not produced by this build are removed at the end of it
+    private boolean removeOrphanedOutputs = false;
+    private final Set<Path> producedOutputs = ConcurrentHashMap.newKeySet();
+
+    // the most memory that pages rendered by the preview server may take up, in bytes
+    private long previewCacheSize = 32L * 1024 * 1024;
+
+    // timings of each build phase and page. These are always collected (and emitted as JFR events), but only written
+    // out when the build report is enabled
+    private BuildReport report = new BuildReport();
+    private boolean buildReport = false;
+    private int slowestPageCount = 10;
+
+    // template name -> hash of the template with all includes resolved, used to detect template changes
+    private final Map<String, String> templateHashes = new HashMap<>();
+
     // map of slug -> content
-    private final Map<String, SiteContent> allContentMap = new HashMap<>();
+    private final Map<String, SiteContent> allContentMap = new ConcurrentHashMap<>();
+
+    // when the site URL is set, RSS and Atom feeds of the latest posts and a sitemap of all content are written
+    private String siteUrl;
+    private String siteTitle;
+    private String siteDescription;
+    private String siteAuthor;
+    private int feedSize = 20;
+    private boolean fullContentFeeds = true;
+
+    // all registered posts, sorted and indexed as they are registered
+    private final PostIndex postIndex = new PostIndex();
+
+    // content that could not be registered because its slug was already taken, reported before the build starts
+    private final Queue<SiteContent> duplicateSlugContent = new ConcurrentLinkedQueue<>();
 
     private final Consumer<SiteContent> postPathFunction = SitePaths.createSlugDirStructure("posts/", true);
     private final Consumer<SiteContent> pagePathFunction = SitePaths.createSlugDirStructure("", false);
@@ -41,62 +199,494 @@ public abstract class SiteBuilder {
     }
 
     public void init() {
+        report = new BuildReport();
+        report.setSlowestPageCount(slowestPageCount);
+
+        parseCache = parseCaching ? new ParseCache(PARSE_CACHE_PATH, parseCacheMaxSize) : null;
+
         // ------------------------------------------------------------------------
         // Templates
         // ------------------------------------------------------------------------
 
         // read in the static template files as strings
-        loadTemplates();
+        phase("loadTemplates", this::loadTemplates);
 
         // with all the templates in memory, update any ${include ...} directives now in all
         // template files, so that all templates are complete and do not have any 'include' directives.
-        processIncludesDirectives();
+        // This fails if a template includes an unknown template, or if templates include each other in a cycle.
+        phase("processIncludesDirectives", this::processIncludesDirectives);
+
+        phase("compileTemplates", this::compileTemplates);
 
         // ------------------------------------------------------------------------
         // Content Discovery
         // ------------------------------------------------------------------------
 
-        registerContent();
+        phase("registerContent", this::registerContent);
+
+        checkForDuplicateSlugs();
     }
 
     public void run() {
-        processContent();
+        // content may also have been registered by subclasses since init()
+        checkForDuplicateSlugs();
+
+        startManifest();
+        if (skipIdenticalWrites) {
+            outputIndex = OutputIndex.load(OUTPUT_INDEX_PATH);
+        }
+
+        if (precompression && precompressor == null) {
+            precompressor = new Precompressor(precompressionMinSize, 0.9, Runtime.getRuntime().availableProcessors(),
+                    PRECOMPRESSION_SKIPS_PATH, this::recordOutput);
+        }
+        if (archivePath != null) {
+            startArchive();
+        }
+
+        try {
+            phase("fingerprintAssets", this::fingerprintAssets);
+
+            phase("processContent", this::processContent);
+
+            phase("writeFeeds", this::writeFeeds);
+
+            // copy all static resources into the appropriate locations under the output dir
+            phase("processStaticResources", this::processStaticResources);
+
+            if (linkChecker != null) {
+                phase("checkLinks", this::checkLinks);
+            }
+
+            if (archive != null) {
+                phase("writeArchive", this::writeArchive);
+            }
+
+            phase("precompress", this::awaitPrecompression);
+
+            if (parseCache != null) {
+                phase("trimParseCache", parseCache::trim);
+            }
+
+            phase("saveManifest", this::saveManifest);
+
+            phase("saveOutputIndex", this::saveOutputIndex);
+
+            if (removeOrphanedOutputs) {
+                phase("removeOrphanedOutputs", this::removeOrphanedOutputs);
+            }
+        } finally {
+            linkChecker = null;
+            if (archive != null) {
+                closeArchive();
+            }
+            // the report is written even if the build fails, as it shows how far the build got
+            if (buildReport) {
+                saveBuildReport();
+            }
+        }
+    }
+
+    /**
+     * Watches www/pages, www/posts, www/templates and www/static, rebuilding only the outputs affected by each change,
+     * until the calling thread is interrupted. Changes made in quick succession are collected into a single rebuild.
+     * Editing a page or post re-renders that page, editing a template re-renders every page that uses it (directly or
+     * through includes), and editing a static file copies just that file. Content registered in code by subclasses is
+     * not regenerated. This must be called after {@link #init()} and {@link #run()}.
+     */
+    public void watch() {
+        try {
+            new SiteWatcher(this, getInputPath("www/pages"), getInputPath("www/posts"),
+                    getInputPath("www/templates"), getInputPath("www/static"), null).run();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Serves the site at http://localhost:{port}/ until the calling thread is interrupted, rendering each page in memory
+     * when it is requested rather than writing the site to the output directory. Static files are served straight from
+     * www/static. Rendered pages are cached, and the cache is cleared whenever a page, post, template or static file
+     * changes, so that the next request shows the change. Drafts are served too. This must be called after
+     * {@link #init()}, instead of {@link #run()}.
+     */
+    public void preview(final int port) {
+        fingerprintAssets();
+
+        final PreviewServer server = new PreviewServer(this, getInputPath("www/static"), previewCacheSize);
+        try {
+            server.start(port);
+            new SiteWatcher(this, getInputPath("www/pages"), getInputPath("www/posts"),
+                    getInputPath("www/templates"), getInputPath("www/static"), server).run();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Sets the most memory, in bytes, that pages rendered by the preview server may take up before the least recently
+     * requested pages are dropped. The default is 32MB.
+     */
+    public void setPreviewCacheSize(long previewCacheSize) {
+        this.previewCacheSize = previewCacheSize;
+    }
+
+    /**
+     * Renders pages using the old approach of running a regex replacement over the whole page for every property,
+     * rather than the compiled templates. This is slower, and is retained only to allow output to be compared.
+     */
+    public void setLegacyTemplating(boolean legacyTemplating) {
+        this.legacyTemplating = legacyTemplating;
+    }
+
+    /**
+     * Reads the site's inputs from the www directory under the given directory, rather than from the www directory on
+     * the classpath (which may be inside a jar). A relative root is resolved against the working directory now, so
+     * that the paths of content read from it match the (absolute) paths reported when watching for changes.
+     */
+    public void setInputRoot(Path inputRoot) {
+        this.inputRoot = inputRoot == null ? null : inputRoot.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Renders pages in parallel, rather than one at a time on the calling thread. The output is identical either way.
+     */
+    public void setParallelRendering(boolean parallelRendering) {
+        this.parallelRendering = parallelRendering;
+    }
+
+    /**
+     * Parses the files under www/pages and www/posts in parallel, rather than one at a time on the calling thread.
+     */
+    public void setParallelParsing(boolean parallelParsing) {
+        this.parallelParsing = parallelParsing;
+    }
+
+    /**
+     * Sets the executor that is used when parallel rendering or parsing is enabled. The executor is not shut down by
+     * the builder. If this is not set, an executor is created from {@link BuildExecutors#newDefaultExecutor()} each
+     * time one is needed.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Only re-renders pages whose source, template chain or properties have changed since the last build, and only
+     * re-copies static files whose size or modification time have changed. What each build produced is recorded in
+     * {@link #MANIFEST_PATH}. Outputs of pages and static files that no longer exist are removed.
+     */
+    public void setIncrementalBuild(boolean incrementalBuild) {
+        this.incrementalBuild = incrementalBuild;
+    }
+
+    /**
+     * Syncs static files into the output directory, rather than copying every file on every build. Files whose size and
+     * modification time (or failing that, content) match the output are skipped, and the rest are copied or hard
+     * linked, depending on the mode, in parallel.
+     */
+    public void setStaticResourceSync(StaticResourceSync.Mode staticSyncMode) {
+        this.staticSyncMode = staticSyncMode;
+    }
+
+    /**
+     * Sets how many static files may be synced at the same time. The default is 4.
+     */
+    public void setStaticResourceSyncConcurrency(int staticSyncConcurrency) {
+        this.staticSyncConcurrency = staticSyncConcurrency;
+    }
+
+    /**
+     * Removes any files in the output directory that were not produced by the build, such as the output of deleted
+     * pages and static files, at the end of each build.
+     */
+    public void setRemoveOrphanedOutputs(boolean removeOrphanedOutputs) {
+        this.removeOrphanedOutputs = removeOrphanedOutputs;
+    }
+
+    /**
+     * Also writes every static file under a fingerprinted name that includes the start of its content hash, such as
+     * css/style.3f9a1c2b.css, so that assets can be served with far-future cache headers. Templates and content refer
+     * to assets with {@code ${asset css/style.css}} directives, which resolve to the fingerprinted path (or to the plain
+     * path, when fingerprinting is off). The hashes are kept in {@link #ASSET_MANIFEST_PATH}, so only assets whose
+     * size or modification time change are hashed again.
+     */
+    public void setAssetFingerprinting(boolean assetFingerprinting) {
+        this.assetFingerprinting = assetFingerprinting;
+    }
+
+    /**
+     * Caches the front matter and rendered body of every page and post file under {@link #PARSE_CACHE_PATH}, keyed by
+     * the hash of the file, so that files that have not changed are not parsed again by later builds.
+     */
+    public void setParseCaching(boolean parseCaching) {
+        this.parseCaching = parseCaching;
+    }
+
+    /**
+     * Sets the size, in bytes, that the parse cache is trimmed to at the end of each build, by removing the least
+     * recently used entries. The default is {@link ParseCache#DEFAULT_MAX_SIZE}.
+     */
+    public void setParseCacheMaxSize(long parseCacheMaxSize) {
+        this.parseCacheMaxSize = parseCacheMaxSize;
+    }
+
+    /**
+     * Keeps only the metadata of pages and posts (such as their slug, title, date, template and paths) in memory,
+     * rather than also keeping the body of every one of them for the whole build. Bodies are read when each page is
+     * rendered, and dropped once it has been written. This is best combined with {@link #setParseCaching(boolean)}, so
+     * that reading a body again does not mean rendering its markdown again. The bodies of the items in WordPress
+     * exports are written to a temporary file as the export is read, and read back from it when they are rendered.
+     */
+    public void setLowMemory(boolean lowMemory) {
+        this.lowMemory = lowMemory;
+    }
+
+    /**
+     * Minifies rendered html pages as they are written, collapsing whitespace and removing comments, while leaving the
+     * content of pre, textarea, script and style elements untouched.
+     */
+    public void setMinifyHtml(boolean minifyHtml) {
+        this.minifyHtml = minifyHtml;
+    }
+
+    /**
+     * Writes a gzip compressed copy of every HTML, CSS, JavaScript, SVG and XML output next to it (e.g. index.html.gz),
+     * for web servers that serve precompressed files. Files are compressed in parallel with the rest of the build, and
+     * are only compressed again when they change. Files that are too small, or that compress by less than 10%, are not
+     * compressed.
+     */
+    public void setPrecompression(boolean precompression) {
+        this.precompression = precompression;
+    }
+
+    /**
+     * Sets the size, in bytes, below which outputs are not precompressed. The default is 1024.
+     */
+    public void setPrecompressionMinSize(long precompressionMinSize) {
+        this.precompressionMinSize = precompressionMinSize;
+    }
+
+    /**
+     * Writes the output of each build into a single archive at the given path, rather than into the output directory.
+     * The format is taken from the extension: .zip, .tar, or .tar.gz (or .tgz). Entries are sorted by path and have a
+     * fixed timestamp, so the same inputs always produce the same archive. As the archive is written in full by every
+     * build, this can not be combined with incremental builds, static resource syncing, precompression or removing
+     * orphaned outputs. Watching still writes to the output directory.
+     */
+    public void setArchiveOutput(Path archivePath) {
+        if (archivePath != null) {
+            ArchiveWriter.formatOf(archivePath);
+        }
+        this.archivePath = archivePath;
+    }
+
+    /**
+     * Checks every href and src in the rendered pages, other than links to other sites, against the outputs of the
+     * build (pages, static files, fingerprinted assets, feeds and sitemaps), and reports each broken link along with
+     * the page it is on. Links are picked out as pages are rendered, so this adds little to the build. Pages that are
+     * skipped as unchanged by an incremental build are read back from the output directory to be checked.
+     */
+    public void setLinkChecking(boolean linkChecking) {
+        this.linkChecking = linkChecking;
+    }
+
+    /**
+     * Fails the build with a {@link SiteBuildException} if link checking finds any broken links. The outputs have
+     * already been written by then, but an archive is not.
+     */
+    public void setFailOnBrokenLinks(boolean failOnBrokenLinks) {
+        this.failOnBrokenLinks = failOnBrokenLinks;
+    }
+
+    /**
+     * Sets whether rendered pages that are byte for byte identical to the existing output are left untouched, rather
+     * than being rewritten. This is enabled by default.
+     */
+    public void setSkipIdenticalWrites(boolean skipIdenticalWrites) {
+        this.skipIdenticalWrites = skipIdenticalWrites;
+    }
+
+    /**
+     * Sets the absolute URL the site is published at, such as 'https://jonathangiles.net'. When this is set, each build
+     * writes RSS and Atom feeds of the latest posts to feed.xml and atom.xml, and a sitemap of all pages and posts to
+     * sitemap.xml (which becomes a sitemap index once there are more than {@link SitemapWriter#MAX_URLS} URLs).
+     */
+    public void setSiteUrl(String siteUrl) {
+        this.siteUrl = siteUrl;
+    }
+
+    /**
+     * Sets the title of the site, used in the feeds.
+     */
+    public void setSiteTitle(String siteTitle) {
+        this.siteTitle = siteTitle;
+    }
 
-        // copy all static resources into the appropriate locations under the output dir
-        processStaticResources();
+    /**
+     * Sets the description of the site, used in the feeds.
+     */
+    public void setSiteDescription(String siteDescription) {
+        this.siteDescription = siteDescription;
+    }
+
+    /**
+     * Sets the author of the site, used in the Atom feed.
+     */
+    public void setSiteAuthor(String siteAuthor) {
+        this.siteAuthor = siteAuthor;
+    }
+
+    /**
+     * Sets how many of the latest posts are included in the feeds. The default is 20.
+     */
+    public void setFeedSize(int feedSize) {
+        this.feedSize = feedSize;
+    }
+
+    /**
+     * Sets whether the feeds include the full content of each post, rather than only its title and link. This is
+     * enabled by default.
+     */
+    public void setFullContentFeeds(boolean fullContentFeeds) {
+        this.fullContentFeeds = fullContentFeeds;
+    }
+
+    /**
+     * Writes a JSON report of the time taken by each phase of the build, and the time taken, bytes read and written and
+     * memory allocated for every page, to {@link #BUILD_REPORT_PATH} at the end of each build, and prints the slowest
+     * pages. The timings are also emitted as JFR events whether or not this is enabled, so they can be recorded with
+     * -XX:StartFlightRecording.
+     */
+    public void setBuildReport(boolean buildReport) {
+        this.buildReport = buildReport;
+    }
+
+    /**
+     * Sets how many of the slowest pages are listed in the build report. The default is 10.
+     */
+    public void setSlowestPageCount(int slowestPageCount) {
+        this.slowestPageCount = slowestPageCount;
+        report.setSlowestPageCount(slowestPageCount);
+    }
+
+    /**
+     * Returns the timings of the current (or last) build.
+     */
+    public BuildReport getBuildReport() {
+        return report;
+    }
+
+    private void phase(final String name, final Runnable task) {
+        final BuildReport.PhaseMeasurement phase = report.startPhase(name);
+        try {
+            task.run();
+        } finally {
+            phase.finish();
+        }
+    }
+
+    private void saveBuildReport() {
+        report.printSummary();
+        try {
+            report.save(BUILD_REPORT_PATH);
+            System.out.println("Build report written to " + BUILD_REPORT_PATH);
+        } catch (IOException e) {
+            System.err.println("Could not write build report " + BUILD_REPORT_PATH + ": " + e.getMessage());
+        }
     }
 
     private void registerContent() {
-        registerContent(getPath("www/pages", loader), ContentType.PAGE);
-        registerContent(getPath("www/posts", loader), ContentType.POST);
+        registerContent(getInputPath("www/pages"), ContentType.PAGE);
+        registerContent(getInputPath("www/posts"), ContentType.POST);
     }
 
     private void registerContent(final Path rootPath, final ContentType type) {
+        final List<Path> paths;
         try (Stream<Path> files = Files.walk(rootPath)) {
-            // we only process pages that have front matter
-            files.filter(Files::isRegularFile)
+            paths = files.filter(Files::isRegularFile)
                 .filter(path -> {
                     // we process any file that ends with .xml, .html, or .md, but only if they have
                     // front matter that we can process
                     final String n = path.getFileName().toString();
                     return n.endsWith(".html") || n.endsWith(".md") || n.endsWith(".xml");
-                }).map(InputFile::fromPath)
-                .filter(InputFile::hasFrontMatter)
-                .forEach(inputFile -> {
-                    switch (type) {
-                        case PAGE:
-                            registerContent(new Page(inputFile));
-                            break;
-                        case POST:
-                            registerContent(new Post(inputFile));
-                            break;
-                    }
+                }).collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final Map<String, Throwable> failures = new ConcurrentSkipListMap<>();
+        map(paths, parallelParsing, path -> {
+            try {
+                final BuildReport.PageMeasurement parse = report.startPage(BuildReport.Stage.PARSE);
+                final List<SiteContent> contents = readContents(path, type);
+                for (SiteContent content : contents) {
+                    registerContent(content);
+                }
+                if (contents.size() == 1 && allContentMap.get(contents.get(0).getSlug()) == contents.get(0)) {
+                    // only the front matter has been read so far - the bytes read are counted with the body. The
+                    // time taken to read a file holding many pages is not attributed to any one of them
+                    parse.finish(contents.get(0).getSlug(), 0);
+                }
+            } catch (Exception e) {
+                failures.put(path.toString(), e);
+            }
+            return null;
+        });
+
+        if (!failures.isEmpty()) {
+            throw new SiteBuildException(failures.size() + " files could not be read:", failures);
+        }
+    }
+
+    // reads the pages and posts in the given file. Most files hold a single page or post, and produce nothing if they
+    // have no front matter, as we only process pages that have front matter. A WordPress export produces a page or post
+    // for each of its items, which are read one at a time rather than loading the whole export. In low memory mode, the
+    // bodies of the items are spilled to a temporary file rather than held, as there is no cheap way to read one item
+    // from the export again
+    List<SiteContent> readContents(final Path path, final ContentType type) {
+        try {
+            if (path.getFileName().toString().endsWith(".xml") && WxrFile.isWxr(path)) {
+                final WxrFile.BodySpill spill = lowMemory ? new WxrFile.BodySpill() : null;
+                if (spill != null) {
+                    closeSpill(wxrSpills.put(path, spill));
+                }
+                final List<SiteContent> contents = new ArrayList<>();
+                WxrFile.readItems(path, spill, item -> {
+                    final SiteContent content = item.isPage() ? new Page(item) : new Post(item);
+                    content.setSourcePath(path);
+                    content.setSourceHash(item.getHash());
+                    content.setSourceSize(item.getBodySize());
+                    content.setRetainContent(!lowMemory);
+                    contents.add(content);
                 });
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+                return contents;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final InputFile inputFile = InputFile.fromPath(path, parseCache);
+        if (!inputFile.hasFrontMatter()) {
+            return List.of();
         }
+
+        final SiteContent content = type == ContentType.PAGE ? new Page(inputFile) : new Post(inputFile);
+        content.setSourcePath(path);
+        content.setRetainContent(!lowMemory);
+        return List.of(content);
     }
 
+    /**
+     * Registers the given content with the site. This is safe to call from multiple threads. If the slug of the
+     * content is already taken, the content is not registered, and the conflict is reported before the site is built.
+     */
     public void registerContent(final SiteContent content) {
         if (content instanceof Page) {
             pagePathFunction.accept(content);
@@ -104,19 +694,124 @@ public abstract class SiteBuilder {
             postPathFunction.accept(content);
         }
 
-        if (allContentMap.containsKey(content.getSlug())) {
-            System.err.println("Duplicate slug found '" + content.getSlug() + "' - aborting");
-            System.exit(-1);
+        if (allContentMap.putIfAbsent(content.getSlug(), content) != null) {
+            duplicateSlugContent.add(content);
+        } else if (content instanceof Post) {
+            postIndex.add((Post) content);
         }
-        allContentMap.put(content.getSlug(), content);
     }
 
+    void checkForDuplicateSlugs() {
+        if (duplicateSlugContent.isEmpty()) {
+            return;
+        }
+
+        final Map<String, Set<String>> sources = new TreeMap<>();
+        for (SiteContent duplicate : duplicateSlugContent) {
+            final Set<String> slugSources = sources.computeIfAbsent(duplicate.getSlug(), slug -> new TreeSet<>());
+            slugSources.add(describeSource(allContentMap.get(duplicate.getSlug())));
+            slugSources.add(describeSource(duplicate));
+        }
+
+        final Map<String, Throwable> failures = new LinkedHashMap<>();
+        sources.forEach((slug, slugSources) ->
+            failures.put(slug, new IllegalStateException("Duplicate slug in " + String.join(", ", slugSources))));
+        duplicateSlugContent.clear();
+        throw new SiteBuildException(failures.size() + " slugs are used by more than one page:", failures);
+    }
+
+    private static String describeSource(SiteContent content) {
+        return content.getSourcePath() != null ? content.getSourcePath().toString()
+                : content.getClass().getSimpleName() + " '" + content.getTitle() + "'";
+    }
+
+    /**
+     * Returns an unmodifiable view of all posts (including drafts), newest first.
+     */
     public Set<Post> getAllPosts() {
-        return allContentMap.values().stream()
-                .filter(c -> c instanceof Post)
-                .map(c -> (Post)c)
-                .sorted(Comparator.comparing(Post::getDate).reversed().thenComparing(Post::getSlug))
-                .collect(Collectors.toCollection(LinkedHashSet::new));
+        return postIndex.getPosts().asSet();
+    }
+
+    /**
+     * Returns the indexes of all posts, by date, year, month, tag and category, which support paging through them
+     * without sorting or filtering all posts.
+     */
+    public PostIndex getPostIndex() {
+        return postIndex;
+    }
+
+    Collection<SiteContent> getAllContent() {
+        return allContentMap.values();
+    }
+
+    AssetResolver getAssetResolver() {
+        return assetResolver;
+    }
+
+    // --------------------------------------------------------------------------
+    // Feeds and sitemaps
+    // --------------------------------------------------------------------------
+
+    void writeFeeds() {
+        if (siteUrl == null) {
+            return;
+        }
+
+        final List<Post> latestPosts = postIndex.getPosts().asSet().stream()
+                .filter(post -> post.getStatus() != SiteContentStatus.DRAFT)
+                .limit(feedSize)
+                .collect(Collectors.toList());
+        final List<SiteContent> published = allContentMap.values().stream()
+                .filter(c -> c.getStatus() != SiteContentStatus.DRAFT)
+                .sorted(Comparator.comparing(SiteContent::getSlug))
+                .collect(Collectors.toList());
+
+        final FeedWriter feedWriter = new FeedWriter(siteUrl, siteTitle != null ? siteTitle : siteUrl,
+                siteDescription, siteAuthor);
+        feedWriter.setFullContent(fullContentFeeds);
+        feedWriter.setAssetResolver(assetResolver);
+        final SitemapWriter sitemapWriter = new SitemapWriter(siteUrl);
+
+        try {
+            writeOutput("feed.xml", out -> feedWriter.writeRss(out, "feed.xml", latestPosts));
+            writeOutput("atom.xml", out -> feedWriter.writeAtom(out, "atom.xml", latestPosts));
+
+            if (published.size() <= SitemapWriter.MAX_URLS) {
+                writeOutput("sitemap.xml", out -> sitemapWriter.writeUrlSet(out, published));
+            } else {
+                final List<String> sitemaps = new ArrayList<>();
+                for (int i = 0; i < published.size(); i += SitemapWriter.MAX_URLS) {
+                    final List<SiteContent> shard =
+                            published.subList(i, Math.min(i + SitemapWriter.MAX_URLS, published.size()));
+                    final String name = "sitemap-" + (sitemaps.size() + 1) + ".xml";
+                    writeOutput(name, out -> sitemapWriter.writeUrlSet(out, shard));
+                    sitemaps.add(name);
+                }
+                writeOutput("sitemap.xml", out -> sitemapWriter.writeIndex(out, sitemaps));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("Wrote feeds of " + latestPosts.size() + " posts, and a sitemap of " + published.size()
+                + " pages");
+    }
+
+    // writes a file that is not a page to the output directory, and records it as produced by this build
+    private void writeOutput(final String name, final IOConsumer<Writer> content) throws IOException {
+        final Path file = new File(OUTPUT_DIR, name).toPath();
+        if (archive != null) {
+            archive.write(name, content);
+            recordOutput(file);
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        if (skipIdenticalWrites) {
+            writeToFileIfChanged(file, content, outputIndex);
+        } else {
+            writeToFile(file, content);
+        }
+        recordOutput(file);
+        precompress(file);
     }
 
     // --------------------------------------------------------------------------
@@ -124,12 +819,602 @@ public abstract class SiteBuilder {
     // --------------------------------------------------------------------------
 
     private void processStaticResources() {
-        final Path staticPath = getPath("www/static", loader);
-        try (Stream<Path> files = Files.walk(staticPath)) {
-            files.filter(Files::isRegularFile)
-                .forEach(file -> copyFile(staticPath, file));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        final Path staticPath = getInputPath("www/static");
+        try {
+            final List<Path> files;
+            try (Stream<Path> paths = Files.walk(staticPath)) {
+                files = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+            }
+
+            if (staticSyncMode != null && archive == null) {
+                new StaticResourceSync(staticPath, staticSyncMode, staticSyncConcurrency).syncAll(files);
+                for (Path file : files) {
+                    recordStaticResource(staticPath, file);
+                }
+            } else {
+                for (Path file : files) {
+                    processStaticResource(staticPath, file);
+                }
+            }
+
+            // remove any static files that were copied by the previous build but have since been deleted
+            for (String key : previousManifest.getStaticFiles().keySet()) {
+                if (!manifest.getStaticFiles().containsKey(key)) {
+                    System.out.println("Removing stale static file: " + key);
+                    deleteOutput(new File(OUTPUT_DIR, key).toPath());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void processStaticResource(final Path staticPath, final Path file) throws IOException {
+        if (archive != null) {
+            archive.addFile(staticPath.relativize(file).toString().replace(File.separatorChar, '/'), file);
+        } else if (staticSyncMode != null) {
+            new StaticResourceSync(staticPath, staticSyncMode, 1).sync(file);
+        } else {
+            final String key = staticPath.relativize(file).toString().replace(File.separatorChar, '/');
+            final boolean unchanged = incrementalBuild
+                    && staticFileEntry(file).matches(previousManifest.getStaticFiles().get(key))
+                    && Files.exists(SitePaths.createRelativePath(staticPath, file));
+            if (!unchanged) {
+                copyFile(staticPath, file);
+            }
+        }
+        recordStaticResource(staticPath, file);
+    }
+
+    private void recordStaticResource(final Path staticPath, final Path file) throws IOException {
+        final String key = staticPath.relativize(file).toString().replace(File.separatorChar, '/');
+        manifest.getStaticFiles().put(key, staticFileEntry(file));
+        final Path output = SitePaths.createRelativePath(staticPath, file);
+        recordOutput(output);
+        precompress(output);
+
+        if (assetFingerprinting) {
+            writeFingerprintedAsset(key, file);
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    // Asset fingerprinting
+    // --------------------------------------------------------------------------
+
+    /**
+     * Brings the asset fingerprints up to date with www/static, returning the paths of the assets whose fingerprinted
+     * path has changed (including assets that were added or removed).
+     */
+    Set<String> fingerprintAssets() {
+        if (!assetFingerprinting) {
+            return Collections.emptySet();
+        }
+        if (assetManifest == null) {
+            assetManifest = AssetManifest.load(ASSET_MANIFEST_PATH);
+        }
+
+        final Path staticPath = getInputPath("www/static");
+        final Map<String, String> fingerprintedPaths = new TreeMap<>();
+        try {
+            final List<Path> files;
+            try (Stream<Path> paths = Files.walk(staticPath)) {
+                files = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                final String key = staticPath.relativize(file).toString().replace(File.separatorChar, '/');
+                fingerprintedPaths.put(key, AssetManifest.fingerprint(key, assetManifest.update(key, file).getHash()));
+            }
+            assetManifest.getAssets().keySet().retainAll(fingerprintedPaths.keySet());
+            assetManifest.save(ASSET_MANIFEST_PATH);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final AssetResolver previous = assetResolver;
+        final Set<String> changed = new TreeSet<>();
+        fingerprintedPaths.forEach((key, path) -> {
+            if (!path.equals(previous.getFingerprintedPath(key))) {
+                changed.add(key);
+            }
+        });
+        previous.getPaths().stream().filter(key -> !fingerprintedPaths.containsKey(key)).forEach(changed::add);
+
+        assetResolver = new AssetResolver(fingerprintedPaths);
+        assetsHash = Hashing.hash(fingerprintedPaths.toString());
+        return changed;
+    }
+
+    // assets are content addressed, so a fingerprinted copy that already exists does not need to be written again
+    private void writeFingerprintedAsset(final String key, final Path file) throws IOException {
+        final String hash = assetManifest.update(key, file).getHash();
+        final Path output = new File(OUTPUT_DIR, AssetManifest.fingerprint(key, hash)).toPath();
+        if (archive != null) {
+            archive.addFile(AssetManifest.fingerprint(key, hash), file);
+            recordOutput(output);
+            return;
+        }
+        if (!Files.isRegularFile(output) || Files.size(output) != Files.size(file)) {
+            Files.createDirectories(output.getParent());
+            final Path tempFile = createTempSibling(output);
+            try {
+                Files.copy(file, tempFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                Files.move(tempFile, output, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+        recordOutput(output);
+        precompress(output);
+    }
+
+    /**
+     * Returns the content that refers to any of the given assets, in its template or its own content.
+     */
+    List<SiteContent> findAssetDependents(final Set<String> assetPaths) {
+        return allContentMap.values().stream()
+            .filter(content -> {
+                final Template template = compiledTemplates.get(content.getTemplate());
+                if (template != null && template.getFields().stream().anyMatch(field ->
+                        AssetResolver.isDirective(field) && assetPaths.contains(AssetResolver.getPath(field)))) {
+                    return true;
+                }
+                return assetReferences(content).stream().anyMatch(assetPaths::contains);
+            })
+            .collect(Collectors.toList());
+    }
+
+    // returns the assets the body of the given content has directives for, reading the body only if they were not
+    // recorded when it was rendered
+    private static Set<String> assetReferences(final SiteContent content) {
+        Set<String> references = content.getAssetReferences();
+        if (references == null) {
+            references = AssetResolver.references(content.getContent());
+            content.setAssetReferences(references);
+        }
+        return references;
+    }
+
+    private static BuildManifest.StaticFileEntry staticFileEntry(final Path file) throws IOException {
+        return new BuildManifest.StaticFileEntry(Files.size(file), Files.getLastModifiedTime(file).toMillis());
+    }
+
+    // --------------------------------------------------------------------------
+    // Archive output
+    // --------------------------------------------------------------------------
+
+    private void startArchive() {
+        final List<String> conflicts = new ArrayList<>();
+        if (incrementalBuild) {
+            conflicts.add("incremental builds");
+        }
+        if (staticSyncMode != null) {
+            conflicts.add("static resource syncing");
+        }
+        if (precompression) {
+            conflicts.add("precompression");
+        }
+        if (removeOrphanedOutputs) {
+            conflicts.add("removing orphaned outputs");
+        }
+        if (!conflicts.isEmpty()) {
+            throw new IllegalStateException("Archive output can not be combined with " + String.join(", ", conflicts));
+        }
+
+        try {
+            archive = new ArchiveWriter(archivePath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeArchive() {
+        try {
+            final int entries = archive.finish();
+            System.out.println("Wrote " + entries + " entries to " + archivePath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void closeArchive() {
+        try {
+            archive.close();
+        } catch (IOException e) {
+            System.err.println("Could not remove the archive spill file: " + e.getMessage());
+        } finally {
+            archive = null;
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    // Link checking
+    // --------------------------------------------------------------------------
+
+    // the outputs that are known before pages are rendered: the pages themselves, and static files and their
+    // fingerprinted copies. Anything else (such as feeds) is found once the build has produced it
+    private Set<String> expectedOutputs(final List<SiteContent> contents) {
+        final Set<String> outputs = new HashSet<>();
+        contents.forEach(content -> outputs.add(outputName(content.getFullOutputPath())));
+
+        final Path staticPath = getInputPath("www/static");
+        try (Stream<Path> paths = Files.walk(staticPath)) {
+            paths.filter(Files::isRegularFile)
+                .forEach(file -> outputs.add(staticPath.relativize(file).toString().replace(File.separatorChar, '/')));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (assetFingerprinting) {
+            assetResolver.getPaths().forEach(asset -> outputs.add(assetResolver.getFingerprintedPath(asset)));
+        }
+        return outputs;
+    }
+
+    private boolean isCheckedForLinks(final SiteContent content) {
+        return linkChecker != null && content.getFullOutputPath().getFileName().toString().endsWith(".html");
+    }
+
+    private void checkLinks() {
+        final Map<String, List<String>> broken = linkChecker.finish(producedOutputs.stream()
+                .map(SiteBuilder::outputName)
+                .collect(Collectors.toList()));
+
+        final int brokenLinks = broken.values().stream().mapToInt(List::size).sum();
+        System.out.println("Checked " + linkChecker.getLinkCount() + " links on " + linkChecker.getPageCount()
+                + " pages: " + brokenLinks + " broken links on " + broken.size() + " pages");
+        broken.forEach((page, links) -> System.err.println("Broken links on " + page + ": " + String.join(", ", links)));
+
+        if (failOnBrokenLinks && !broken.isEmpty()) {
+            final Map<String, Throwable> failures = new LinkedHashMap<>();
+            broken.forEach((page, links) ->
+                    failures.put(page, new IllegalStateException("Broken links: " + String.join(", ", links))));
+            throw new SiteBuildException(brokenLinks + " broken links were found:", failures);
+        }
+    }
+
+    // the path of the given output relative to the output directory, with '/' separators, as links refer to it
+    private static String outputName(final Path output) {
+        return OUTPUT_DIR.toPath().toAbsolutePath().normalize().relativize(output.toAbsolutePath().normalize())
+                .toString().replace(File.separatorChar, '/');
+    }
+
+    // --------------------------------------------------------------------------
+    // Output tracking
+    // --------------------------------------------------------------------------
+
+    /**
+     * Records that the given file in the output directory was produced by this build, so that it is not removed as an
+     * orphan.
+     */
+    protected void recordOutput(final Path output) {
+        producedOutputs.add(output.toAbsolutePath().normalize());
+    }
+
+    private void precompress(final Path output) {
+        if (precompressor != null) {
+            precompressor.submit(output);
+        }
+    }
+
+    void awaitPrecompression() {
+        if (precompressor != null) {
+            precompressor.awaitAll();
+        }
+    }
+
+    private void removeOrphanedOutputs() {
+        final Path outputDir = OUTPUT_DIR.toPath();
+        if (!Files.isDirectory(outputDir)) {
+            return;
+        }
+
+        try {
+            final List<Path> orphans;
+            try (Stream<Path> files = Files.walk(outputDir)) {
+                orphans = files.filter(Files::isRegularFile)
+                    .filter(file -> !producedOutputs.contains(file.toAbsolutePath().normalize()))
+                    .sorted()
+                    .collect(Collectors.toList());
+            }
+            for (Path orphan : orphans) {
+                System.out.println("Removing orphaned output: " + orphan);
+                deleteOutput(orphan);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void removeStaticResource(final Path staticPath, final Path file) throws IOException {
+        final String key = staticPath.relativize(file).toString().replace(File.separatorChar, '/');
+        final Path output = SitePaths.createRelativePath(staticPath, file);
+        if (Files.isDirectory(output)) {
+            // a whole directory of static files was removed
+            try (Stream<Path> outputs = Files.walk(output)) {
+                final List<Path> paths = outputs.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+                for (Path path : paths) {
+                    Files.delete(path);
+                }
+            }
+            manifest.getStaticFiles().keySet().removeIf(k -> k.startsWith(key + "/"));
+        } else {
+            deleteOutput(output);
+            manifest.getStaticFiles().remove(key);
+        }
+        System.out.println("Removing static file: " + key);
+    }
+
+    // --------------------------------------------------------------------------
+    // Watching
+    // --------------------------------------------------------------------------
+
+    /**
+     * Reloads all templates, returning the names of the templates that were added, removed or changed, including
+     * changes to the templates they include. If the templates can not be loaded, the previous templates are kept.
+     */
+    Set<String> reloadTemplates() {
+        final Map<String, String> oldTemplates = templates;
+        final IncludeGraph oldIncludeGraph = includeGraph;
+        final Map<String, Template> oldCompiledTemplates = compiledTemplates;
+        final Map<String, String> oldTemplateHashes = new HashMap<>(templateHashes);
+        try {
+            templates = new HashMap<>();
+            loadTemplates();
+            processIncludesDirectives();
+            compileTemplates();
+        } catch (RuntimeException e) {
+            templates = oldTemplates;
+            includeGraph = oldIncludeGraph;
+            compiledTemplates = oldCompiledTemplates;
+            templateHashes.clear();
+            templateHashes.putAll(oldTemplateHashes);
+            throw e;
+        }
+
+        final Set<String> changed = new TreeSet<>();
+        oldTemplateHashes.forEach((name, hash) -> {
+            if (!hash.equals(templateHashes.get(name))) {
+                changed.add(name);
+            }
+        });
+        templateHashes.keySet().stream().filter(name -> !oldTemplateHashes.containsKey(name)).forEach(changed::add);
+        manifest.setTemplates(templateHashes);
+        return changed;
+    }
+
+    /**
+     * Returns the content that is rendered using any of the given templates, whether directly or through includes.
+     */
+    List<SiteContent> findTemplateDependents(final Set<String> templateNames) {
+        return allContentMap.values().stream()
+            .filter(content -> {
+                final String template = content.getTemplate();
+                if (template != null && templateNames.contains(template)) {
+                    return true;
+                }
+
+                final Set<String> used = new HashSet<>();
+                if (compiledTemplates.containsKey(template)) {
+                    used.addAll(includeGraph.getTransitiveIncludes(template));
+                } else {
+                    for (String include : IncludeGraph.findIncludes(content.getContent())) {
+                        used.add(include);
+                        used.addAll(includeGraph.getTransitiveIncludes(include));
+                    }
+                }
+                return !Collections.disjoint(used, templateNames);
+            })
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Re-reads the given page or post file, replacing whatever was registered from it before, and returns the new
+     * content, which is empty if the file no longer produces any content.
+     */
+    List<SiteContent> reloadContent(final Path file, final ContentType type) throws IOException {
+        return reloadContent(file, type, true);
+    }
+
+    /**
+     * Re-reads the given page or post file as {@link #reloadContent(Path, ContentType)} does, but only removes the
+     * output of the content it replaces if {@code removeOutputs} is true.
+     */
+    List<SiteContent> reloadContent(final Path file, final ContentType type, final boolean removeOutputs)
+            throws IOException {
+        final List<SiteContent> removed = unregisterContent(file);
+
+        final List<SiteContent> contents = readContents(file, type);
+        final Set<Path> outputPaths = new HashSet<>();
+        for (SiteContent content : contents) {
+            registerContent(content);
+            outputPaths.add(content.getFullOutputPath());
+        }
+
+        // the output of the old content is only removed if no new content is written to the same place
+        for (SiteContent old : removed) {
+            if (removeOutputs && !outputPaths.contains(old.getFullOutputPath())) {
+                removeOutput(old);
+            }
+        }
+        checkForDuplicateSlugs();
+        return contents;
+    }
+
+    /**
+     * Unregisters all content read from the given file, or from files under the given directory, and removes its
+     * output.
+     */
+    void removeContent(final Path path) throws IOException {
+        for (SiteContent content : unregisterContent(path)) {
+            removeOutput(content);
+        }
+    }
+
+    /**
+     * Unregisters all content read from the given file, or from files under the given directory, leaving its output.
+     */
+    void forgetContent(final Path path) {
+        unregisterContent(path);
+    }
+
+    private static void closeSpill(final WxrFile.BodySpill spill) {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                System.err.println("Could not remove spill file: " + e.getMessage());
+            }
+        }
+    }
+
+    private List<SiteContent> unregisterContent(final Path path) {
+        final List<SiteContent> removed = allContentMap.values().stream()
+            .filter(c -> c.getSourcePath() != null && c.getSourcePath().startsWith(path))
+            .collect(Collectors.toList());
+        for (SiteContent content : removed) {
+            allContentMap.remove(content.getSlug());
+            if (content instanceof Post) {
+                postIndex.remove((Post) content);
+            }
+            manifest.getPages().remove(content.getSlug());
+            report.removePage(content.getSlug());
+        }
+        wxrSpills.keySet().removeIf(spilled -> {
+            if (spilled.startsWith(path)) {
+                closeSpill(wxrSpills.get(spilled));
+                return true;
+            }
+            return false;
+        });
+        return removed;
+    }
+
+    private void removeOutput(final SiteContent content) throws IOException {
+        System.out.println("Removing output of: " + content.getSlug());
+        deleteOutput(content.getFullOutputPath());
+    }
+
+    /**
+     * Renders the given content, returning the failures (if any) keyed by slug.
+     */
+    Map<String, Throwable> processContent(final Collection<SiteContent> contents) {
+        // the manifest is kept up to date as pages are rendered, so that later incremental builds can rely on it
+        previousManifest = manifest;
+
+        return processPages(contents.stream()
+            .filter(c -> c.getStatus() != SiteContentStatus.DRAFT)
+            .sorted(Comparator.comparing(SiteContent::getSlug))
+            .collect(Collectors.toList()));
+    }
+
+    // --------------------------------------------------------------------------
+    // Build manifest
+    // --------------------------------------------------------------------------
+
+    private void startManifest() {
+        manifest = new BuildManifest();
+        manifest.setTemplates(templateHashes);
+        if (incrementalBuild) {
+            previousManifest = BuildManifest.load(MANIFEST_PATH);
+        } else {
+            // a full build makes any existing manifest out of date, so it must not be used by a later incremental build
+            previousManifest = new BuildManifest();
+            try {
+                Files.deleteIfExists(MANIFEST_PATH);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    void saveOutputIndex() {
+        if (outputIndex == null) {
+            return;
+        }
+        try {
+            outputIndex.save(OUTPUT_INDEX_PATH, producedOutputs);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void saveManifest() {
+        if (!incrementalBuild) {
+            return;
+        }
+        try {
+            manifest.save(MANIFEST_PATH);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // describes everything the given page is rendered from, so that it can be compared with the previous build
+    private BuildManifest.PageEntry createPageEntry(final SiteContent content) throws IOException {
+        final MessageDigest digest = Hashing.newDigest();
+        Hashing.update(digest, String.valueOf(legacyTemplating));
+        Hashing.update(digest, String.valueOf(minifyHtml));
+        Hashing.update(digest, assetsHash);
+        Hashing.update(digest, content.getFullOutputPath().toString());
+
+        final Set<String> includes = new TreeSet<>();
+        final String template = content.getTemplate();
+        if (compiledTemplates.containsKey(template)) {
+            Hashing.update(digest, template);
+            Hashing.update(digest, templateHashes.get(template));
+            includes.addAll(includeGraph.getTransitiveIncludes(template));
+        } else {
+            // content without a template depends only on the templates it includes
+            for (String include : IncludeGraph.findIncludes(content.getContent())) {
+                Hashing.update(digest, include);
+                Hashing.update(digest, templateHashes.get(include));
+                includes.add(include);
+                includes.addAll(includeGraph.getTransitiveIncludes(include));
+            }
+        }
+
+        // content read from a file is identified by the file (or by the part of it the content was read from), rather
+        // than by its (possibly expensive) rendered body, but content created in code (such as listings of posts) is
+        // identified by its properties
+        final Path sourcePath = content.getSourcePath();
+        if (sourcePath != null) {
+            final String sourceHash = content.getSourceHash();
+            Hashing.update(digest, sourceHash != null ? sourceHash : Hashing.hash(sourcePath));
+        }
+        for (String key : content.getPropertyNames()) {
+            if (sourcePath == null || !key.equals("content")) {
+                Hashing.update(digest, key);
+                Hashing.update(digest, content.getProperty(key));
+            }
+        }
+
+        final BuildManifest.PageEntry entry = new BuildManifest.PageEntry();
+        entry.setSourcePath(sourcePath == null ? null : sourcePath.toString());
+        entry.setOutputPath(content.getFullOutputPath().toString());
+        entry.setTemplate(template);
+        entry.setIncludes(new ArrayList<>(includes));
+        entry.setFingerprint(Hashing.toHex(digest.digest()));
+        return entry;
+    }
+
+    private boolean isUnchanged(final SiteContent content, final BuildManifest.PageEntry entry) {
+        final BuildManifest.PageEntry previous = previousManifest.getPages().get(content.getSlug());
+        return previous != null
+                && entry.getFingerprint().equals(previous.getFingerprint())
+                && entry.getOutputPath().equals(previous.getOutputPath())
+                && Files.exists(content.getFullOutputPath());
+    }
+
+    // removes the output of any pages that the previous build produced, but which this build does not
+    private void removeStaleOutputs(final List<SiteContent> contents) throws IOException {
+        final Set<String> outputPaths = contents.stream()
+                .map(c -> c.getFullOutputPath().toString())
+                .collect(Collectors.toSet());
+        for (BuildManifest.PageEntry previous : previousManifest.getPages().values()) {
+            if (!outputPaths.contains(previous.getOutputPath())) {
+                System.out.println("Removing stale output: " + previous.getOutputPath());
+                deleteOutput(Paths.get(previous.getOutputPath()));
+            }
         }
     }
 
@@ -138,30 +1423,241 @@ public abstract class SiteBuilder {
     // --------------------------------------------------------------------------
 
     private void processContent() {
-        allContentMap.values().stream()
+        final long start = System.currentTimeMillis();
+
+        // content is processed in slug order, so that the log and any failures are reported in a stable order
+        final List<SiteContent> contents = allContentMap.values().stream()
             .filter(c -> c.getStatus() != SiteContentStatus.DRAFT)
-            .forEach(content -> {
-                System.out.println("Processing: " + content.getSlug());
-                processContent(content);
-            });
+            .sorted(Comparator.comparing(SiteContent::getSlug))
+            .collect(Collectors.toList());
+
+        unchangedPages.set(0);
+        writtenPages.set(0);
+        identicalPages.set(0);
+        minifiedBytesIn.set(0);
+        minifiedBytesOut.set(0);
+        producedOutputs.clear();
+        contents.forEach(content -> recordOutput(content.getFullOutputPath()));
+        if (linkChecking) {
+            linkChecker = new LinkChecker(expectedOutputs(contents), siteUrl);
+        }
+        final Map<String, Throwable> failures = processPages(contents);
+
+        System.out.println("Processed " + (contents.size() - failures.size()) + " of " + contents.size()
+                + " pages in " + (System.currentTimeMillis() - start) + "ms (" + writtenPages.get() + " written, "
+                + identicalPages.get() + " identical to existing output, " + unchangedPages.get()
+                + " skipped as unchanged)");
+        if (minifyHtml && minifiedBytesIn.get() > 0) {
+            final long saved = minifiedBytesIn.get() - minifiedBytesOut.get();
+            report.setMinifiedBytesSaved(saved);
+            System.out.println("Minified pages from " + minifiedBytesIn.get() + " to " + minifiedBytesOut.get()
+                    + " bytes, saving " + saved + " bytes (" + (saved * 100 / minifiedBytesIn.get()) + "%)");
+        }
+
+        if (incrementalBuild) {
+            try {
+                removeStaleOutputs(contents);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new SiteBuildException(failures.size() + " pages could not be processed:", failures);
+        }
     }
 
-    private void processContent(SiteContent siteContent) {
-        final String template = siteContent.getTemplate();
+    // renders the given content, returning the failures (if any) keyed by slug
+    private Map<String, Throwable> processPages(final List<SiteContent> contents) {
+        final List<Throwable> results = map(contents, parallelRendering, this::processPage);
+
+        final Map<String, Throwable> failures = new TreeMap<>();
+        for (int i = 0; i < contents.size(); i++) {
+            if (results.get(i) != null) {
+                failures.put(contents.get(i).getSlug(), results.get(i));
+            }
+        }
+        return failures;
+    }
+
+    // applies the function to every item, in parallel if requested, returning the results in the order of the items
+    private <T, R> List<R> map(final List<T> items, final boolean parallel, final Function<T, R> function) {
+        if (!parallel) {
+            return items.stream().map(function).collect(Collectors.toList());
+        }
+
+        final ExecutorService executor = this.executor != null ? this.executor : BuildExecutors.newDefaultExecutor();
+        try {
+            final List<CompletableFuture<R>> futures = items.stream()
+                .map(item -> CompletableFuture.supplyAsync(() -> function.apply(item), executor))
+                .collect(Collectors.toList());
+            return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        } finally {
+            if (executor != this.executor) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    // processes a single page, returning the failure, if any. Log output for the page is buffered and printed in one
+    // go, so that output from pages being processed in parallel does not interleave.
+    private Throwable processPage(final SiteContent content) {
+        final StringBuilder log = new StringBuilder();
+
+        Throwable failure = null;
+        try {
+            final BuildManifest.PageEntry entry = incrementalBuild ? createPageEntry(content) : null;
+            if (entry != null && isUnchanged(content, entry)) {
+                unchangedPages.incrementAndGet();
+
+                // the output was not touched, so what we know about it is carried over from the previous build
+                final BuildManifest.PageEntry previous = previousManifest.getPages().get(content.getSlug());
+                entry.setOutputHash(previous.getOutputHash());
+                entry.setOutputSize(previous.getOutputSize());
+                entry.setOutputLastModified(previous.getOutputLastModified());
+                report.setOutcome(content.getSlug(), "unchanged");
+                if (isCheckedForLinks(content)) {
+                    linkChecker.scan(outputName(content.getFullOutputPath()),
+                            readFile(content.getFullOutputPath()));
+                }
+            } else {
+                log.append("Processing: ").append(content.getSlug()).append(System.lineSeparator());
+
+                // the body is read lazily, so it is read here to time it separately from rendering. It is only read
+                // once, as it may not be kept by the content
+                final BuildReport.PageMeasurement parse = report.startPage(BuildReport.Stage.PARSE);
+                final String body = content.getContent();
+                final Path sourcePath = content.getSourcePath();
+                parse.finish(content.getSlug(), sourcePath == null ? 0
+                        : content.getSourceSize() >= 0 ? content.getSourceSize() : Files.size(sourcePath));
 
-        String html = processIncludesDirectives(templates.getOrDefault(template, siteContent.getContent()));
+                final BuildReport.PageMeasurement render = report.startPage(BuildReport.Stage.RENDER);
+                final WriteResult result = processContent(content, body);
+                render.finish(content.getSlug(), result.isWritten() ? result.getSize() : 0);
+                report.setOutcome(content.getSlug(), result.isWritten() ? "written" : "identical");
+                (result.isWritten() ? writtenPages : identicalPages).incrementAndGet();
+
+                if (entry != null) {
+                    entry.setOutputHash(result.getHash());
+                    entry.setOutputSize(result.getSize());
+                    entry.setOutputLastModified(Files.getLastModifiedTime(content.getFullOutputPath()).toMillis());
+                }
+            }
 
-        for (Map.Entry<String, String> property : siteContent.getProperties().entrySet()) {
-            html = fillTemplate(html, property.getKey(), property.getValue());
+            if (entry != null) {
+                manifest.getPages().put(content.getSlug(), entry);
+            }
+            precompress(content.getFullOutputPath());
+        } catch (Exception e) {
+            log.append("Failed to process '").append(content.getSlug()).append("': ").append(e)
+                .append(System.lineSeparator());
+            report.setOutcome(content.getSlug(), "failed");
+            failure = e;
         }
 
+        System.out.print(log);
+        return failure;
+    }
+
+    private WriteResult processContent(SiteContent siteContent, String body) {
         Path outputPath = siteContent.getFullOutputPath();
-        outputPath.getParent().toFile().mkdirs();
-        writeToFile(outputPath, html);
+        // recorded now, while the body is at hand, so that finding the pages that use an asset does not read them all
+        siteContent.setAssetReferences(AssetResolver.references(body));
+        try {
+            final IOConsumer<Writer> page = isCheckedForLinks(siteContent)
+                    ? writer -> writePage(siteContent, body, linkChecker.extractor(outputName(outputPath), writer))
+                    : writer -> writePage(siteContent, body, writer);
+            if (archive != null) {
+                return archive.write(SitePaths.createRelativePath(outputPath).replace(File.separatorChar, '/'), page);
+            }
+
+            Files.createDirectories(outputPath.getParent());
+            if (skipIdenticalWrites) {
+                return writeToFileIfChanged(outputPath, page, outputIndex);
+            }
+            writeToFile(outputPath, page);
+            return new WriteResult(true, null, Files.size(outputPath));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // renders the given content (whose body has already been read) to the writer, minifying it if it is an html page
+    // and minification is enabled
+    private void writePage(final SiteContent siteContent, final String body, final Writer writer) throws IOException {
+        final boolean minify = minifyHtml && siteContent.getFullOutputPath().getFileName().toString().endsWith(".html");
+        final HtmlMinifier minifier = minify ? new HtmlMinifier(writer) : null;
+        final Writer out = minify ? minifier : writer;
+        if (legacyTemplating) {
+            out.write(renderLegacy(siteContent, body));
+        } else {
+            render(siteContent, body, out);
+        }
+        if (minify) {
+            minifier.finish();
+            minifiedBytesIn.addAndGet(minifier.getBytesIn());
+            minifiedBytesOut.addAndGet(minifier.getBytesOut());
+        }
+    }
+
+    /**
+     * Renders the given content in memory, exactly as it would be written to the output directory, as UTF-8.
+     */
+    byte[] renderPage(final SiteContent siteContent) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            writePage(siteContent, siteContent.getContent(), writer);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void render(SiteContent siteContent, String body, Writer out) throws IOException {
+        Template template = compiledTemplates.get(siteContent.getTemplate());
+        if (template == null) {
+            // content without a template acts as its own template
+            try {
+                template = Template.compile(includeGraph.processIncludes(body));
+            } catch (IllegalStateException e) {
+                throw new IllegalStateException("Could not process '" + siteContent.getSlug() + "': " + e.getMessage(), e);
+            }
+        }
+        template.render(field -> getValue(siteContent, body, field), out);
+    }
+
+    // returns the value of a template slot for the given content (whose body has already been read), resolving asset
+    // directives in both the template and the content itself
+    private String getValue(final SiteContent siteContent, final String body, final String field) {
+        if (AssetResolver.isDirective(field)) {
+            return assetResolver.resolve(field);
+        }
+        return field.equals("content") ? assetResolver.rewrite(body) : siteContent.getProperty(field);
+    }
+
+    private String renderLegacy(SiteContent siteContent, String body) {
+        final String template = siteContent.getTemplate();
+
+        String html = LegacyTemplating.processIncludesDirectives(templates.getOrDefault(template, body), templates);
+
+        // properties are filled in the (hash) order they always have been, as later ones are also filled into the text
+        // of earlier ones
+        final Map<String, String> properties = new HashMap<>();
+        for (String key : siteContent.getPropertyNames()) {
+            properties.put(key, key.equals("content") ? body : siteContent.getProperty(key));
+        }
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            html = LegacyTemplating.fillTemplate(html, property.getKey(), property.getValue());
+        }
+        return assetResolver.rewrite(html);
+    }
+
+    // returns the given input directory, from the input root if one is set, or otherwise from the classpath
+    private Path getInputPath(final String path) {
+        return inputRoot != null ? inputRoot.resolve(path) : getPath(path, loader);
     }
 
     private void loadTemplates() {
-        final Path templatesPath = getPath("www/templates", loader);
+        final Path templatesPath = getInputPath("www/templates");
+        templates.clear();
 
         try (Stream<Path> files = Files.walk(templatesPath)) {
             files.filter(Files::isRegularFile)
@@ -176,34 +1672,17 @@ public abstract class SiteBuilder {
     }
 
     private void processIncludesDirectives() {
-        templates.replaceAll((k, v) -> processIncludesDirectives(v));
+        includeGraph = IncludeGraph.resolve(templates);
+        templates.replaceAll((k, v) -> includeGraph.getResolved(k));
     }
 
-    private String processIncludesDirectives(String html) {
-        for (final Map.Entry<String, String> template : templates.entrySet()) {
-            html = fillTemplate(html, "include " + template.getKey(), template.getValue());
-        }
-
-        return html;
-    }
-
-    private static String fillTemplate(final String html, final String field, final String data) {
-        return fillTemplate(html, field, data, null);
-    }
-
-    private static String fillTemplate(final String html, final String field, String data, final Post post) {
-        try {
-            // we have to escape some characters in the data
-            data = data.replace("$", "\\$");
-
-            return html.replaceAll(Pattern.quote("${" + field + "}"), data);
-        } catch (IndexOutOfBoundsException e) {
-            if (post == null) {
-                throw new RuntimeException(e);
-            } else {
-                System.err.println("Could not do regex on field '" + field + "' on post '" + post.getTitle() + "' with data '" + data + "'");
-            }
-            return "";
-        }
+    private void compileTemplates() {
+        final Map<String, Template> compiled = new HashMap<>();
+        templateHashes.clear();
+        templates.forEach((name, html) -> {
+            compiled.put(name, Template.compile(html));
+            templateHashes.put(name, Hashing.hash(html));
+        });
+        compiledTemplates = Collections.unmodifiableMap(compiled);
     }
 }
@@ -0,0 +1,264 @@
+package net.jonathangiles.tools.sitebuilder;
+
+import net.jonathangiles.tools.sitebuilder.models.SiteContent;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the site's input directories and asks the {@link SiteBuilder} to rebuild only the outputs affected by each
+ * batch of changes. Parsed content and templates stay in memory between batches. When watching for a
+ * {@link PreviewServer}, nothing is written - the changes are only reloaded, and the server's cache is cleared.
+ */
+class SiteWatcher {
+    // how long the input directories must be quiet before a batch of changes is rebuilt, so that rapid saves (and
+    // editors that write a file in several steps) result in a single rebuild
+    private static final long DEBOUNCE_MILLIS = 250;
+
+    private final SiteBuilder builder;
+    private final Path pagesPath;
+    private final Path postsPath;
+    private final Path templatesPath;
+    private final Path staticPath;
+
+    // the preview server whose cache is cleared on each change, or null if outputs are rebuilt instead
+    private final PreviewServer previewServer;
+
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+    SiteWatcher(SiteBuilder builder, Path pagesPath, Path postsPath, Path templatesPath, Path staticPath,
+                PreviewServer previewServer) {
+        this.builder = builder;
+        this.pagesPath = pagesPath.toAbsolutePath();
+        this.postsPath = postsPath.toAbsolutePath();
+        this.templatesPath = templatesPath.toAbsolutePath();
+        this.staticPath = staticPath.toAbsolutePath();
+        this.previewServer = previewServer;
+    }
+
+    void run() throws IOException, InterruptedException {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            for (Path root : new Path[] { pagesPath, postsPath, templatesPath, staticPath }) {
+                register(watchService, root, null);
+            }
+            System.out.println("Watching for changes...");
+
+            while (!Thread.currentThread().isInterrupted()) {
+                final Set<Path> changed = new LinkedHashSet<>();
+                WatchKey key = watchService.take();
+                while (key != null) {
+                    collectChanges(watchService, key, changed);
+                    key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (previewServer != null) {
+                    reload(changed);
+                } else {
+                    rebuild(changed);
+                }
+            }
+        }
+    }
+
+    private void register(final WatchService watchService, final Path dir, final Set<Path> changed) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.collect(Collectors.toList())) {
+                if (Files.isDirectory(path)) {
+                    watchedDirs.put(path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), path);
+                } else if (changed != null) {
+                    // files in a directory that was just created (or moved in) will not raise their own events
+                    changed.add(path);
+                }
+            }
+        }
+    }
+
+    private void collectChanges(final WatchService watchService, final WatchKey key, final Set<Path> changed)
+            throws IOException {
+        final Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || dir == null) {
+                // we have lost track of what changed, so treat every input as changed
+                changed.add(pagesPath);
+                changed.add(postsPath);
+                changed.add(templatesPath);
+                changed.add(staticPath);
+                continue;
+            }
+
+            final Path path = dir.resolve((Path) event.context());
+            changed.add(path);
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                register(watchService, path, changed);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+    }
+
+    private void rebuild(final Set<Path> changed) {
+        final long start = System.currentTimeMillis();
+
+        // slug -> content to render, with templates handled first so that content is rendered with the new templates
+        final Map<String, SiteContent> toRender = new LinkedHashMap<>();
+        int staticFiles = 0;
+
+        if (changed.stream().anyMatch(path -> path.startsWith(templatesPath))) {
+            try {
+                final Set<String> changedTemplates = builder.reloadTemplates();
+                System.out.println("Templates changed: " + changedTemplates);
+                builder.findTemplateDependents(changedTemplates).forEach(c -> toRender.put(c.getSlug(), c));
+            } catch (RuntimeException e) {
+                System.err.println("Could not reload templates: " + e.getMessage());
+            }
+        }
+
+        for (Path path : changed) {
+            try {
+                if (path.startsWith(pagesPath) || path.startsWith(postsPath)) {
+                    final SiteBuilder.ContentType type = path.startsWith(pagesPath)
+                            ? SiteBuilder.ContentType.PAGE : SiteBuilder.ContentType.POST;
+                    for (Path file : filesIn(path)) {
+                        if (isContentFile(file)) {
+                            builder.reloadContent(file, type).forEach(c -> toRender.put(c.getSlug(), c));
+                        }
+                    }
+                    if (!Files.exists(path)) {
+                        builder.removeContent(path);
+                    }
+                } else if (path.startsWith(staticPath)) {
+                    for (Path file : filesIn(path)) {
+                        builder.processStaticResource(staticPath, file);
+                        staticFiles++;
+                    }
+                    if (!Files.exists(path)) {
+                        builder.removeStaticResource(staticPath, path);
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("Could not process change to " + path + ": " + e.getMessage());
+            }
+        }
+
+        if (changed.stream().anyMatch(path -> path.startsWith(staticPath))) {
+            try {
+                final Set<String> changedAssets = builder.fingerprintAssets();
+                if (!changedAssets.isEmpty()) {
+                    System.out.println("Asset fingerprints changed: " + changedAssets);
+                    builder.findAssetDependents(changedAssets).forEach(c -> toRender.put(c.getSlug(), c));
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Could not fingerprint assets: " + e.getMessage());
+            }
+        }
+
+        final Map<String, Throwable> failures = builder.processContent(toRender.values());
+        failures.forEach((slug, failure) -> System.err.println("Failed to process '" + slug + "': " + failure));
+        if (changed.stream().anyMatch(path -> path.startsWith(pagesPath) || path.startsWith(postsPath))) {
+            try {
+                builder.writeFeeds();
+            } catch (RuntimeException e) {
+                System.err.println("Could not write feeds: " + e.getMessage());
+            }
+        }
+        try {
+            builder.awaitPrecompression();
+        } catch (RuntimeException e) {
+            System.err.println("Could not precompress outputs: " + e.getMessage());
+        }
+        try {
+            builder.saveManifest();
+        } catch (RuntimeException e) {
+            System.err.println("Could not save build manifest: " + e.getMessage());
+        }
+        try {
+            builder.saveOutputIndex();
+        } catch (RuntimeException e) {
+            System.err.println("Could not save output index: " + e.getMessage());
+        }
+
+        System.out.println("Rebuilt " + (toRender.size() - failures.size()) + " pages and " + staticFiles
+                + " static files in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    // brings the builder's content, templates and asset fingerprints up to date with the changes, without writing
+    // anything, and then clears the preview server's cache. The whole cache is cleared, as pages may depend on content
+    // other than their own, such as listings of posts
+    private void reload(final Set<Path> changed) {
+        final long start = System.currentTimeMillis();
+
+        if (changed.stream().anyMatch(path -> path.startsWith(templatesPath))) {
+            try {
+                System.out.println("Templates changed: " + builder.reloadTemplates());
+            } catch (RuntimeException e) {
+                System.err.println("Could not reload templates: " + e.getMessage());
+            }
+        }
+
+        int reloaded = 0;
+        for (Path path : changed) {
+            try {
+                if (path.startsWith(pagesPath) || path.startsWith(postsPath)) {
+                    final SiteBuilder.ContentType type = path.startsWith(pagesPath)
+                            ? SiteBuilder.ContentType.PAGE : SiteBuilder.ContentType.POST;
+                    for (Path file : filesIn(path)) {
+                        if (isContentFile(file)) {
+                            builder.reloadContent(file, type, false);
+                            reloaded++;
+                        }
+                    }
+                    if (!Files.exists(path)) {
+                        builder.forgetContent(path);
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("Could not process change to " + path + ": " + e.getMessage());
+            }
+        }
+
+        if (changed.stream().anyMatch(path -> path.startsWith(staticPath))) {
+            try {
+                builder.fingerprintAssets();
+            } catch (RuntimeException e) {
+                System.err.println("Could not fingerprint assets: " + e.getMessage());
+            }
+        }
+
+        previewServer.invalidate();
+        System.out.println("Reloaded " + reloaded + " files in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    // returns the regular files at (or under) the given path, which may no longer exist
+    private static List<Path> filesIn(final Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            return paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isContentFile(final Path file) {
+        final String n = file.getFileName().toString();
+        return n.endsWith(".html") || n.endsWith(".md") || n.endsWith(".xml");
+    }
+}
@@ -0,0 +1,350 @@
+package net.jonathangiles.tools.sitebuilder.build;
+
+import net.jonathangiles.tools.sitebuilder.util.Hashing;
+import net.jonathangiles.tools.sitebuilder.util.IOConsumer;
+import net.jonathangiles.tools.sitebuilder.util.WriteResult;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the whole output of a build into a single zip, tar or gzipped tar archive, rather than into the output
+ * directory. Outputs are given as paths relative to the output directory, and may be added from many threads at once.
+ * Rendered outputs are appended to a single spill file as they are added, and static files are left where they are,
+ * until {@link #finish()} writes the archive in one sequential pass. Entries are written in order of their path, with
+ * a fixed timestamp, owner and mode, so that building the same site twice produces the same archive, byte for byte.
+ */
+public class ArchiveWriter implements Closeable {
+
+    public enum Format { ZIP, TAR, TAR_GZ }
+
+    // 1980-01-01T00:00:00, the earliest time a zip entry can hold, which is also used for tar entries
+    private static final LocalDateTime TIMESTAMP = LocalDateTime.of(1980, 1, 1, 0, 0);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path archive;
+    private final Format format;
+
+    // holds the content of rendered outputs, one after the other, until the archive is written
+    private final Path spillPath;
+    private final FileChannel spill;
+    private final AtomicLong spillSize = new AtomicLong();
+
+    // path in the archive -> where its content is, sorted by path
+    private final Map<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    /**
+     * Creates a writer for the given archive, whose format is taken from its extension: .zip, .tar, or .tar.gz (or
+     * .tgz).
+     */
+    public ArchiveWriter(Path archive) throws IOException {
+        this.archive = archive;
+        this.format = formatOf(archive);
+        this.spillPath = archive.resolveSibling("." + archive.getFileName() + ".spill");
+        if (archive.getParent() != null) {
+            Files.createDirectories(archive.getParent());
+        }
+        this.spill = FileChannel.open(spillPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * Returns the format of an archive with the given name, failing if it is not one that can be written.
+     */
+    public static Format formatOf(final Path archive) {
+        final String name = archive.getFileName().toString().toLowerCase();
+        if (name.endsWith(".zip")) {
+            return Format.ZIP;
+        } else if (name.endsWith(".tar")) {
+            return Format.TAR;
+        } else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+            return Format.TAR_GZ;
+        }
+        throw new IllegalArgumentException("Unknown archive type (expected .zip, .tar, .tar.gz or .tgz): " + archive);
+    }
+
+    /**
+     * Adds an output written as UTF-8 by the given consumer, replacing any output already added at the same path. The
+     * result holds the hash and size of the content, which is always considered to be written.
+     */
+    public WriteResult write(final String path, final IOConsumer<Writer> content) throws IOException {
+        final SpillBuffer bytes = new SpillBuffer();
+        final MessageDigest digest = Hashing.newDigest();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new DigestOutputStream(bytes, digest),
+                StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            content.accept(out);
+        }
+
+        // space in the spill file is reserved first, so that outputs from different threads can be written at once
+        final ByteBuffer buffer = bytes.toByteBuffer();
+        final long offset = spillSize.getAndAdd(buffer.remaining());
+        final long length = buffer.remaining();
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += spill.write(buffer, position);
+        }
+        entries.put(path, new Entry(null, offset, length));
+        return new WriteResult(true, Hashing.toHex(digest.digest()), length);
+    }
+
+    /**
+     * Adds the given file at the given path, replacing any output already added there. The file is only read when the
+     * archive is written.
+     */
+    public void addFile(final String path, final Path file) {
+        entries.put(path, new Entry(file, 0, -1));
+    }
+
+    /**
+     * Writes every output that has been added to the archive, in order of path. The archive is written next to its
+     * final location and then moved over it, so an existing archive is only replaced by a complete one. Returns the
+     * number of entries written.
+     */
+    public int finish() throws IOException {
+        final Path tempFile = archive.resolveSibling("." + archive.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE)) {
+                if (format == Format.ZIP) {
+                    writeZip(out);
+                } else {
+                    writeTar(format == Format.TAR_GZ ? new GZIPOutputStream(out, BUFFER_SIZE) : out);
+                }
+            }
+            try {
+                Files.move(tempFile, archive, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, archive, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return entries.size();
+    }
+
+    /**
+     * Discards the spill file. This does not write the archive.
+     */
+    @Override
+    public void close() throws IOException {
+        spill.close();
+        Files.deleteIfExists(spillPath);
+    }
+
+    private void writeZip(final OutputStream out) throws IOException {
+        // zip entries hold local time, so the timestamp is given in local time to be the same in every time zone
+        final long time = TIMESTAMP.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        final ZipOutputStream zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            final ZipEntry entry = new ZipEntry(e.getKey());
+            entry.setTime(time);
+            zip.putNextEntry(entry);
+            copy(e.getValue(), e.getValue().size(), zip);
+            zip.closeEntry();
+        }
+        zip.finish();
+    }
+
+    private void writeTar(final OutputStream out) throws IOException {
+        final TarHeaders headers = new TarHeaders(TIMESTAMP.toEpochSecond(ZoneOffset.UTC));
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            final long size = e.getValue().size();
+            headers.write(out, e.getKey(), size);
+            copy(e.getValue(), size, out);
+            TarHeaders.pad(out, size);
+        }
+        // the end of the archive is marked by two empty blocks
+        out.write(new byte[TarHeaders.BLOCK_SIZE * 2]);
+        if (out instanceof GZIPOutputStream) {
+            ((GZIPOutputStream) out).finish();
+        }
+    }
+
+    // copies exactly the given number of bytes of the entry's content to the stream
+    private void copy(final Entry entry, final long size, final OutputStream out) throws IOException {
+        final byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(size, 1))];
+        long copied = 0;
+        if (entry.file == null) {
+            final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+            while (copied < size) {
+                wrapped.clear().limit((int) Math.min(buffer.length, size - copied));
+                final int read = spill.read(wrapped, entry.offset + copied);
+                if (read < 0) {
+                    throw new IOException("Spill file is truncated");
+                }
+                out.write(buffer, 0, read);
+                copied += read;
+            }
+        } else {
+            try (InputStream in = Files.newInputStream(entry.file)) {
+                int read;
+                while (copied < size && (read = in.read(buffer, 0, (int) Math.min(buffer.length, size - copied))) >= 0) {
+                    out.write(buffer, 0, read);
+                    copied += read;
+                }
+            }
+            if (copied < size) {
+                throw new IOException("File changed while it was being archived: " + entry.file);
+            }
+        }
+    }
+
+    // where the content of an entry is: either a file, or a range of the spill file
+    private static final class Entry {
+        private final Path file;
+        private final long offset;
+        private final long length;
+
+        Entry(Path file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        long size() throws IOException {
+            return file != null ? Files.size(file) : length;
+        }
+    }
+
+    // gives access to the written bytes without copying them
+    private static final class SpillBuffer extends ByteArrayOutputStream {
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    // writes POSIX (ustar) tar headers, with a pax extended header before any entry whose path does not fit in one
+    private static final class TarHeaders {
+        static final int BLOCK_SIZE = 512;
+
+        private final long mtime;
+        private final byte[] header = new byte[BLOCK_SIZE];
+
+        TarHeaders(long mtime) {
+            this.mtime = mtime;
+        }
+
+        void write(final OutputStream out, final String path, final long size) throws IOException {
+            final byte[] name = path.getBytes(StandardCharsets.UTF_8);
+            int split = -1;
+            if (name.length > 100 || name.length != path.length()) {
+                split = name.length == path.length() ? findSplit(name) : -1;
+                if (split < 0) {
+                    final byte[] record = paxRecord("path", path);
+                    writeHeader(out, ("PaxHeaders/" + lastSegment(path)).getBytes(StandardCharsets.UTF_8), -1,
+                            record.length, (byte) 'x');
+                    out.write(record);
+                    pad(out, record.length);
+                }
+            }
+            writeHeader(out, name, split, size, (byte) '0');
+        }
+
+        // writes a header for the given name, split into the prefix and name fields at the given '/' (if any),
+        // truncating it if it does not fit (which is only the case when a pax header holds the full path)
+        private void writeHeader(final OutputStream out, final byte[] name, final int split, final long size,
+                                 final byte type) throws IOException {
+            if (size > 077777777777L) {
+                throw new IOException("Entry is too large for a tar archive: " + size + " bytes");
+            }
+            Arrays.fill(header, (byte) 0);
+            if (split < 0) {
+                System.arraycopy(name, 0, header, 0, Math.min(name.length, 100));
+            } else {
+                System.arraycopy(name, split + 1, header, 0, name.length - split - 1);
+                System.arraycopy(name, 0, header, 345, split);
+            }
+            octal(100, 8, 0644);
+            octal(108, 8, 0);
+            octal(116, 8, 0);
+            octal(124, 12, size);
+            octal(136, 12, mtime);
+            header[156] = type;
+            System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+            header[263] = '0';
+            header[264] = '0';
+
+            // the checksum is worked out with its own field taken to be spaces
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            long checksum = 0;
+            for (byte b : header) {
+                checksum += b & 0xff;
+            }
+            octal(148, 7, checksum);
+            out.write(header);
+        }
+
+        private void octal(final int offset, final int length, final long value) {
+            final String digits = Long.toOctalString(value);
+            final int start = offset + length - 1 - digits.length();
+            for (int i = offset; i < start; i++) {
+                header[i] = '0';
+            }
+            for (int i = 0; i < digits.length(); i++) {
+                header[start + i] = (byte) digits.charAt(i);
+            }
+            header[offset + length - 1] = 0;
+        }
+
+        // returns the index of a '/' that splits the name into a prefix of at most 155 bytes and a name of at most 100
+        // bytes, or -1 if there is none
+        private static int findSplit(final byte[] name) {
+            for (int i = Math.min(name.length - 1, 155); i > 0; i--) {
+                if (name[i] == '/' && name.length - i - 1 <= 100) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // a pax record is '<length> <key>=<value>\n', where the length includes the digits of the length itself
+        private static byte[] paxRecord(final String key, final String value) {
+            final int length = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+            int total = length + String.valueOf(length).length();
+            if (String.valueOf(total).length() != String.valueOf(length).length()) {
+                total = length + String.valueOf(total).length();
+            }
+            return (total + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static String lastSegment(final String path) {
+            final String name = path.substring(path.lastIndexOf('/') + 1);
+            return name.length() > 80 ? name.substring(0, 80) : name;
+        }
+
+        // pads the content of an entry out to a whole number of blocks
+        static void pad(final OutputStream out, final long size) throws IOException {
+            final int remainder = (int) (size % BLOCK_SIZE);
+            if (remainder != 0) {
+                out.write(new byte[BLOCK_SIZE - remainder]);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package net.jonathangiles.tools.sitebuilder.build;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import net.jonathangiles.tools.sitebuilder.util.Hashing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The content hash of every static asset, keyed by its path relative to www/static, persisted under target/ between
+ * builds so that assets whose size and modification time have not changed do not need to be hashed again.
+ */
+public class AssetManifest {
+    // bump this whenever the way fingerprints are worked out changes
+    public static final int VERSION = 1;
+
+    // the number of characters of the content hash used in fingerprinted file names
+    public static final int FINGERPRINT_LENGTH = 8;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private int version = VERSION;
+
+    // path relative to www/static -> asset
+    private Map<String, Asset> assets = new ConcurrentSkipListMap<>();
+
+    /**
+     * Loads the manifest at the given path, returning an empty manifest if there is none or it can not be read.
+     */
+    public static AssetManifest load(final Path path) {
+        if (!Files.isRegularFile(path)) {
+            return new AssetManifest();
+        }
+        try {
+            final AssetManifest manifest = MAPPER.readValue(path.toFile(), AssetManifest.class);
+            return manifest.version == VERSION ? manifest : new AssetManifest();
+        } catch (IOException e) {
+            System.err.println("Could not read asset manifest " + path + ", rehashing all assets: " + e.getMessage());
+            return new AssetManifest();
+        }
+    }
+
+    public void save(final Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        final Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+        MAPPER.writeValue(tempFile.toFile(), this);
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Brings the entry for the given asset up to date, only hashing the file if its size or modification time differ
+     * from those recorded, and returns it.
+     */
+    public Asset update(final String key, final Path file) throws IOException {
+        final long size = Files.size(file);
+        final long lastModified = Files.getLastModifiedTime(file).toMillis();
+        final Asset existing = assets.get(key);
+        if (existing != null && existing.size == size && existing.lastModified == lastModified) {
+            return existing;
+        }
+
+        final Asset asset = new Asset(size, lastModified, Hashing.hash(file));
+        assets.put(key, asset);
+        return asset;
+    }
+
+    /**
+     * Returns the fingerprinted form of the given path, with the start of the hash before the extension, such as
+     * 'css/style.3f9a1c2b.css'.
+     */
+    public static String fingerprint(final String path, final String hash) {
+        final String fingerprint = hash.substring(0, FINGERPRINT_LENGTH);
+        final int slash = path.lastIndexOf('/');
+        final int dot = path.lastIndexOf('.');
+        if (dot <= slash + 1) {
+            // no extension (or a dot file, such as .htaccess)
+            return path + "." + fingerprint;
+        }
+        return path.substring(0, dot) + "." + fingerprint + path.substring(dot);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public Map<String, Asset> getAssets() {
+        return assets;
+    }
+
+    public void setAssets(Map<String, Asset> assets) {
+        this.assets = new ConcurrentSkipListMap<>(assets);
+    }
+
+    public static class Asset {
+        private long size;
+        private long lastModified;
+        private String hash;
+
+        public Asset() { }
+
+        public Asset(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public void setHash(String hash) {
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package net.jonathangiles.tools.sitebuilder.build;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A record of what the last build produced, and from which inputs, persisted under target/ between builds so that
+ * incremental builds can skip pages and static files whose inputs have not changed.
+ */
+public class BuildManifest {
+    // bump this whenever a change to the builder would change the output for the same inputs
+    public static final int VERSION = 1;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private int version = VERSION;
+
+    // template name -> hash of the template, with all includes resolved
+    private Map<String, String> templates = new ConcurrentSkipListMap<>();
+
+    // slug -> page
+    private Map<String, PageEntry> pages = new ConcurrentSkipListMap<>();
+
+    // path relative to www/static -> static file
+    private Map<String, StaticFileEntry> staticFiles = new ConcurrentSkipListMap<>();
+
+    /**
+     * Loads the manifest at the given path. If there is no manifest, or it can not be read, or it was written by a
+     * different version of the builder, an empty manifest is returned, so that everything is built.
+     */
+    public static BuildManifest load(final Path path) {
+        if (!Files.isRegularFile(path)) {
+            return new BuildManifest();
+        }
+        try {
+            final BuildManifest manifest = MAPPER.readValue(path.toFile(), BuildManifest.class);
+            return manifest.version == VERSION ? manifest : new BuildManifest();
+        } catch (IOException e) {
+            System.err.println("Could not read build manifest " + path + ", doing a full build: " + e.getMessage());
+            return new BuildManifest();
+        }
+    }
+
+    public void save(final Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        final Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+        MAPPER.writeValue(tempFile.toFile(), this);
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public Map<String, String> getTemplates() {
+        return templates;
+    }
+
+    public void setTemplates(Map<String, String> templates) {
+        this.templates = new ConcurrentSkipListMap<>(templates);
+    }
+
+    public Map<String, PageEntry> getPages() {
+        return pages;
+    }
+
+    public void setPages(Map<String, PageEntry> pages) {
+        this.pages = new ConcurrentSkipListMap<>(pages);
+    }
+
+    public Map<String, StaticFileEntry> getStaticFiles() {
+        return staticFiles;
+    }
+
+    public void setStaticFiles(Map<String, StaticFileEntry> staticFiles) {
+        this.staticFiles = new ConcurrentSkipListMap<>(staticFiles);
+    }
+
+    public static class PageEntry {
+        private String sourcePath;
+        private String outputPath;
+        private String template;
+        private List<String> includes = new ArrayList<>();
+
+        // hash of everything the page is rendered from - its source, its template chain and its properties
+        private String fingerprint;
+
+        // checksum, size and modification time of the output file when it was last written
+        private String outputHash;
+        private long outputSize;
+        private long outputLastModified;
+
+        public String getSourcePath() {
+            return sourcePath;
+        }
+
+        public void setSourcePath(String sourcePath) {
+            this.sourcePath = sourcePath;
+        }
+
+        public String getOutputPath() {
+            return outputPath;
+        }
+
+        public void setOutputPath(String outputPath) {
+            this.outputPath = outputPath;
+        }
+
+        public String getTemplate() {
+            return template;
+        }
+
+        public void setTemplate(String template) {
+            this.template = template;
+        }
+
+        public List<String> getIncludes() {
+            return includes;
+        }
+
+        public void setIncludes(List<String> includes) {
+            this.includes = includes;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public void setFingerprint(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        public String getOutputHash() {
+            return outputHash;
+        }
+
+        public void setOutputHash(String outputHash) {
+            this.outputHash = outputHash;
+        }
+
+        public long getOutputSize() {
+            return outputSize;
+        }
+
+        public void setOutputSize(long outputSize) {
+            this.outputSize = outputSize;
+        }
+
+        public long getOutputLastModified() {
+            return outputLastModified;
+        }
+
+        public void setOutputLastModified(long outputLastModified) {
+            this.outputLastModified = outputLastModified;
+        }
+    }
+
+    public static class StaticFileEntry {
+        private long size;
+        private long lastModified;
+
+        public StaticFileEntry() { }
+
+        public StaticFileEntry(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        public boolean matches(StaticFileEntry other) {
+            return other != null && size == other.size && lastModified == other.lastModified;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package net.jonathangiles.tools.sitebuilder.build;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Timings of each phase of a build and of every page parsed and rendered in it, along with the bytes read and written
+ * and (where the JVM exposes it) the bytes allocated for each page. Every measurement is also emitted as a JFR event
+ * ('sitebuilder.BuildPhase' and 'sitebuilder.Page'), so that builds can be profiled with a JFR recording.
+ */
+@JsonPropertyOrder({ "totalMillis", "pageCount", "bytesRead", "bytesWritten", "allocatedBytes", "minifiedBytesSaved",
+        "phases",
+        "slowestPages", "pages" })
+public class BuildReport {
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = isAllocationSupported();
+
+    public enum Stage { PARSE, RENDER }
+
+    private final List<PhaseTiming> phases = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, PageTiming> pages = new ConcurrentHashMap<>();
+    private int slowestPageCount = 10;
+    private long minifiedBytesSaved;
+
+    /**
+     * Starts timing a phase of the build. The phase is recorded when {@link PhaseMeasurement#finish()} is called.
+     */
+    public PhaseMeasurement startPhase(final String name) {
+        return new PhaseMeasurement(name);
+    }
+
+    /**
+     * Starts timing the parsing or rendering of a page on the calling thread. The time is added to the page when
+     * {@link PageMeasurement#finish(String, long)} is called from the same thread.
+     */
+    public PageMeasurement startPage(final Stage stage) {
+        return new PageMeasurement(stage);
+    }
+
+    /**
+     * Records how the given page was produced, e.g. 'written', 'identical' or 'unchanged'.
+     */
+    public void setOutcome(final String slug, final String outcome) {
+        page(slug).outcome = outcome;
+    }
+
+    /**
+     * Forgets everything recorded about the given page, such as when it is no longer part of the site.
+     */
+    public void removePage(final String slug) {
+        pages.remove(slug);
+    }
+
+    private PageTiming page(final String slug) {
+        return pages.computeIfAbsent(slug, PageTiming::new);
+    }
+
+    public void setSlowestPageCount(int slowestPageCount) {
+        this.slowestPageCount = slowestPageCount;
+    }
+
+    public double getTotalMillis() {
+        synchronized (phases) {
+            return nanosToMillis(phases.stream().mapToLong(p -> p.nanos).sum());
+        }
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    public long getBytesRead() {
+        return pages.values().stream().mapToLong(PageTiming::getBytesRead).sum();
+    }
+
+    public long getBytesWritten() {
+        return pages.values().stream().mapToLong(PageTiming::getBytesWritten).sum();
+    }
+
+    /**
+     * The bytes allocated while parsing and rendering pages, or -1 if none of them could be measured, as when the JVM
+     * does not expose this, or pages were built on virtual threads.
+     */
+    public long getAllocatedBytes() {
+        final long[] allocated = pages.values().stream()
+                .mapToLong(PageTiming::getAllocatedBytes)
+                .filter(bytes -> bytes >= 0)
+                .toArray();
+        return allocated.length == 0 ? -1 : Arrays.stream(allocated).sum();
+    }
+
+    /**
+     * The bytes saved by minifying pages.
+     */
+    public long getMinifiedBytesSaved() {
+        return minifiedBytesSaved;
+    }
+
+    public void setMinifiedBytesSaved(long minifiedBytesSaved) {
+        this.minifiedBytesSaved = minifiedBytesSaved;
+    }
+
+    public List<PhaseTiming> getPhases() {
+        synchronized (phases) {
+            return new ArrayList<>(phases);
+        }
+    }
+
+    public List<PageTiming> getSlowestPages() {
+        return pages.values().stream()
+                .sorted(Comparator.comparingLong(PageTiming::getTotalNanos).reversed()
+                        .thenComparing(PageTiming::getSlug))
+                .limit(slowestPageCount)
+                .collect(Collectors.toList());
+    }
+
+    public List<PageTiming> getPages() {
+        return pages.values().stream()
+                .sorted(Comparator.comparing(PageTiming::getSlug))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Prints the time taken by each phase, and the slowest pages.
+     */
+    public void printSummary() {
+        System.out.println("Build phases:");
+        for (PhaseTiming phase : getPhases()) {
+            System.out.println(String.format("  %-28s %10.1fms", phase.getName(), phase.getMillis()));
+        }
+
+        final List<PageTiming> slowest = getSlowestPages();
+        if (!slowest.isEmpty()) {
+            System.out.println("Slowest " + slowest.size() + " pages (parse + render):");
+            for (PageTiming page : slowest) {
+                System.out.println(String.format("  %-40s %8.1fms (%.1fms + %.1fms)", page.getSlug(),
+                        nanosToMillis(page.getTotalNanos()), page.getParseMillis(), page.getRenderMillis()));
+            }
+        }
+    }
+
+    public void save(final Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        final Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+        MAPPER.writeValue(tempFile.toFile(), this);
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // milliseconds, to the nearest microsecond
+    private static double nanosToMillis(final long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+
+    private static boolean isAllocationSupported() {
+        try {
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+                if (threads.isThreadAllocatedMemorySupported()) {
+                    threads.setThreadAllocatedMemoryEnabled(true);
+                    return true;
+                }
+            }
+        } catch (UnsupportedOperationException | SecurityException e) {
+            // fall through, and do without allocation counts
+        }
+        return false;
+    }
+
+    // the bytes allocated by the calling thread so far, or -1 if this is not available (as it is not for virtual
+    // threads)
+    private static long allocatedBytes() {
+        if (!ALLOCATION_SUPPORTED) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public final class PhaseMeasurement {
+        private final String name;
+        private final long start = System.nanoTime();
+        private final PhaseEvent event = new PhaseEvent();
+
+        private PhaseMeasurement(String name) {
+            this.name = name;
+            event.begin();
+        }
+
+        public void finish() {
+            phases.add(new PhaseTiming(name, System.nanoTime() - start));
+            if (event.shouldCommit()) {
+                event.phase = name;
+                event.commit();
+            }
+        }
+    }
+
+    public final class PageMeasurement {
+        private final Stage stage;
+        private final long start = System.nanoTime();
+        private final long startAllocated = allocatedBytes();
+        private final PageEvent event = new PageEvent();
+
+        private PageMeasurement(Stage stage) {
+            this.stage = stage;
+            event.begin();
+        }
+
+        /**
+         * Adds the time since this measurement started to the given page, along with the bytes read (when parsing) or
+         * written (when rendering).
+         */
+        public void finish(final String slug, final long bytes) {
+            final long nanos = System.nanoTime() - start;
+            final long endAllocated = allocatedBytes();
+            final long allocated = startAllocated < 0 || endAllocated < 0 ? -1 : endAllocated - startAllocated;
+
+            final PageTiming page = page(slug);
+            synchronized (page) {
+                if (stage == Stage.PARSE) {
+                    page.parseNanos += nanos;
+                    page.bytesRead += bytes;
+                } else {
+                    page.renderNanos += nanos;
+                    page.bytesWritten += bytes;
+                }
+                if (allocated >= 0) {
+                    page.allocatedBytes += allocated;
+                    page.allocationMeasured = true;
+                }
+            }
+
+            if (event.shouldCommit()) {
+                event.slug = slug;
+                event.stage = stage.name().toLowerCase();
+                event.bytes = bytes;
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+    }
+
+    @JsonPropertyOrder({ "name", "millis" })
+    public static class PhaseTiming {
+        private final String name;
+        private final long nanos;
+
+        PhaseTiming(String name, long nanos) {
+            this.name = name;
+            this.nanos = nanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getMillis() {
+            return nanosToMillis(nanos);
+        }
+    }
+
+    @JsonPropertyOrder({ "slug", "outcome", "parseMillis", "renderMillis", "bytesRead", "bytesWritten",
+            "allocatedBytes" })
+    public static class PageTiming {
+        private final String slug;
+        private volatile String outcome;
+        private long parseNanos;
+        private long renderNanos;
+        private long bytesRead;
+        private long bytesWritten;
+        private long allocatedBytes;
+
+        // whether the allocations of any stage of the page could be measured
+        private boolean allocationMeasured;
+
+        PageTiming(String slug) {
+            this.slug = slug;
+        }
+
+        public String getSlug() {
+            return slug;
+        }
+
+        public String getOutcome() {
+            return outcome;
+        }
+
+        public synchronized double getParseMillis() {
+            return nanosToMillis(parseNanos);
+        }
+
+        public synchronized double getRenderMillis() {
+            return nanosToMillis(renderNanos);
+        }
+
+        public synchronized long getBytesRead() {
+            return bytesRead;
+        }
+
+        public synchronized long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * The bytes allocated while parsing and rendering the page, or -1 if they could not be measured.
+         */
+        public synchronized long getAllocatedBytes() {
+            return allocationMeasured ? allocatedBytes : -1;
+        }
+
+        synchronized long getTotalNanos() {
+            return parseNanos + renderNanos;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package net.jonathangiles.tools.sitebuilder.build;
+
+import net.jonathangiles.tools.sitebuilder.templates.LinkExtractor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks that the internal links in rendered pages point at outputs of the build. Links are picked out of each page as
+ * it is rendered (see {@link #extractor(String, Writer)}), so pages are checked in parallel when they are rendered in
+ * parallel, and are looked up straight away in an index of the outputs the build is expected to produce. Only the
+ * links that are not found are kept, and these are looked up again in everything the build actually produced once it
+ * has finished, as some outputs (such as feeds) are only known then.
+ *
+ * <p>Paths are relative to the output directory, with '/' separators. A link to a directory is satisfied by its
+ * index.html, whether or not the link ends in a '/'. Links to other sites, fragments on the same page, and links
+ * with a scheme (such as mailto:) are not checked.</p>
+ */
+public class LinkChecker {
+
+    // a sorted array of output paths, which is far smaller than a hash set of them, and fast enough to search
+    private final String[] index;
+
+    // the site URL, with a trailing '/', so that absolute links to the site itself are checked, or null
+    private final String siteUrl;
+
+    // links that were not in the index: source page, link, and resolved path
+    private final Queue<String[]> unresolved = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder links = new LongAdder();
+
+    /**
+     * Creates a checker that looks links up in the given outputs. The site URL may be null.
+     */
+    public LinkChecker(Collection<String> expectedOutputs, String siteUrl) {
+        this.index = expectedOutputs.toArray(new String[0]);
+        Arrays.sort(index);
+        this.siteUrl = siteUrl == null ? null : siteUrl.endsWith("/") ? siteUrl : siteUrl + "/";
+    }
+
+    /**
+     * Returns a writer that checks each link in the HTML written to it, as a link from the given page, passing the HTML
+     * on to the given writer (which may be null).
+     */
+    public Writer extractor(final String page, final Writer out) {
+        pages.increment();
+        return new LinkExtractor(out, link -> check(page, link));
+    }
+
+    /**
+     * Checks each link in the given HTML, as a link from the given page.
+     */
+    public void scan(final String page, final String html) {
+        try (Writer extractor = extractor(page, null)) {
+            extractor.write(html);
+        } catch (IOException e) {
+            // nothing is written anywhere, so this can not happen
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void check(final String page, final String link) {
+        links.increment();
+        final String path = resolve(page, link);
+        if (path != null && !contains(index, path)) {
+            unresolved.add(new String[] { page, link, path });
+        }
+    }
+
+    /**
+     * Looks the links that were not in the index up again in the outputs the build produced, returning the broken
+     * links (sorted, and without duplicates) keyed by the page they are on, in order of page.
+     */
+    public Map<String, List<String>> finish(final Collection<String> producedOutputs) {
+        final String[] produced = producedOutputs.toArray(new String[0]);
+        Arrays.sort(produced);
+
+        final Map<String, Set<String>> broken = new TreeMap<>();
+        for (String[] link : unresolved) {
+            if (!contains(produced, link[2])) {
+                broken.computeIfAbsent(link[0], page -> new TreeSet<>()).add(link[1]);
+            }
+        }
+        final Map<String, List<String>> result = new TreeMap<>();
+        broken.forEach((page, pageLinks) -> result.put(page, new ArrayList<>(pageLinks)));
+        return result;
+    }
+
+    public long getPageCount() {
+        return pages.sum();
+    }
+
+    public long getLinkCount() {
+        return links.sum();
+    }
+
+    // a link to a directory is served by the index.html in it
+    private static boolean contains(final String[] paths, final String path) {
+        if (path.isEmpty() || path.endsWith("/")) {
+            return Arrays.binarySearch(paths, path + "index.html") >= 0;
+        }
+        return Arrays.binarySearch(paths, path) >= 0 || Arrays.binarySearch(paths, path + "/index.html") >= 0;
+    }
+
+    // returns the path of the output the link points at, relative to the output directory, or null if the link is not
+    // one that is checked. Links that climb above the output directory resolve to a path that can not exist
+    private String resolve(final String page, String link) {
+        if (siteUrl != null && link.startsWith(siteUrl)) {
+            link = "/" + link.substring(siteUrl.length());
+        }
+        if (link.isEmpty() || link.startsWith("#") || link.startsWith("//") || hasScheme(link)) {
+            return null;
+        }
+
+        int end = link.length();
+        for (int i = 0; i < link.length(); i++) {
+            final char c = link.charAt(i);
+            if (c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        String path = decode(link.substring(0, end));
+        if (path.isEmpty()) {
+            // just a query string, which is the page itself
+            return null;
+        }
+        if (!path.startsWith("/")) {
+            path = page.substring(0, page.lastIndexOf('/') + 1) + path;
+        }
+        return normalize(path);
+    }
+
+    // a scheme is letters, digits, '+', '-' and '.', followed by a ':' that comes before any '/'
+    private static boolean hasScheme(final String link) {
+        for (int i = 0; i < link.length(); i++) {
+            final char c = link.charAt(i);
+            if (c == ':') {
+                return i > 0;
+            }
+            if (!Character.isLetterOrDigit(c) && c != '+' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // removes '.' and '..' segments and repeated '/'s, and the leading '/', keeping any trailing '/'
+    private static String normalize(final String path) {
+        final List<String> segments = new ArrayList<>();
+        final String[] parts = path.split("/", -1);
+        for (String part : parts) {
+            if (part.equals("..")) {
+                if (segments.isEmpty()) {
+                    return "../" + path;
+                }
+                segments.remove(segments.size() - 1);
+            } else if (!part.isEmpty() && !part.equals(".")) {
+                segments.add(part);
+            }
+        }
+        final String last = parts[parts.length - 1];
+        final boolean directory = last.isEmpty() || last.equals(".") || last.equals("..");
+        final String normalized = String.join("/", segments);
+        return directory && !normalized.isEmpty() ? normalized + "/" : normalized;
+    }
+
+    // decodes %-escapes as UTF-8, leaving the path as it is if they are malformed. Unlike URLDecoder, '+' is left as is
+    private static String decode(final String path) {
+        if (path.indexOf('%') < 0) {
+            return path;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            final char c = path.charAt(i);
+            if (c == '%') {
+                if (i + 2 >= path.length()) {
+                    return path;
+                }
+                final int hi = Character.digit(path.charAt(i + 1), 16);
+                final int lo = Character.digit(path.charAt(i + 2), 16);
+                if (hi < 0 || lo < 0) {
+                    return path;
+                }
+                bytes.write(hi << 4 | lo);
+                i += 2;
+            } else {
+                final int codePoint = path.codePointAt(i);
+                final byte[] encoded = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+                i += Character.charCount(codePoint) - 1;
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,151 @@
+package net.jonathangiles.tools.sitebuilder.build;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.jonathangiles.tools.sitebuilder.util.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+import static net.jonathangiles.tools.sitebuilder.SiteBuilder.OUTPUT_DIR;
+
+/**
+ * The checksum (CRC32C) and size of every output written with {@link FileUtils#writeToFileIfChanged}, along with its
+ * modification time once it was written, keyed by its path relative to the output directory. It is persisted under
+ * target/ between builds, so that a freshly rendered output can be compared with the existing one without reading the
+ * existing one back. An entry is only trusted while the size and modification time of the file still match it.
+ */
+public class OutputIndex {
+    // bump this whenever the checksum changes
+    public static final int VERSION = 1;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private int version = VERSION;
+
+    // path relative to the output directory -> output
+    private Map<String, Output> outputs = new ConcurrentSkipListMap<>();
+
+    /**
+     * Loads the index at the given path, returning an empty index if there is none or it can not be read.
+     */
+    public static OutputIndex load(final Path path) {
+        if (!Files.isRegularFile(path)) {
+            return new OutputIndex();
+        }
+        try {
+            final OutputIndex index = MAPPER.readValue(path.toFile(), OutputIndex.class);
+            return index.version == VERSION ? index : new OutputIndex();
+        } catch (IOException e) {
+            System.err.println("Could not read output index " + path + ", comparing outputs in full: "
+                    + e.getMessage());
+            return new OutputIndex();
+        }
+    }
+
+    /**
+     * Saves the index, keeping only the entries for the given outputs (as absolute, normalized paths), so that outputs
+     * which are no longer produced do not stay in it.
+     */
+    public void save(final Path path, final Collection<Path> producedOutputs) throws IOException {
+        final Set<String> produced = producedOutputs.stream().map(OutputIndex::key).collect(Collectors.toSet());
+        outputs.keySet().retainAll(produced);
+
+        Files.createDirectories(path.getParent());
+        final Path tempFile = FileUtils.createTempSibling(path);
+        try {
+            MAPPER.writeValue(tempFile.toFile(), this);
+            FileUtils.moveAtomically(tempFile, path);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Returns the entry for the given output file, or null if there is none.
+     */
+    public Output get(final Path file) {
+        return outputs.get(key(file));
+    }
+
+    public void put(final Path file, final Output output) {
+        outputs.put(key(file), output);
+    }
+
+    // returns the path of the given file relative to the output directory, with '/' separators
+    static String key(final Path file) {
+        final Path outputDir = OUTPUT_DIR.toPath().toAbsolutePath().normalize();
+        final Path absolute = file.toAbsolutePath().normalize();
+        final Path relative = absolute.startsWith(outputDir) ? outputDir.relativize(absolute) : absolute;
+        return relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public Map<String, Output> getOutputs() {
+        return outputs;
+    }
+
+    public void setOutputs(Map<String, Output> outputs) {
+        this.outputs = new ConcurrentSkipListMap<>(outputs);
+    }
+
+    public static class Output {
+        private long checksum;
+        private long size;
+        private long lastModified;
+
+        public Output() { }
+
+        public Output(long checksum, long size, long lastModified) {
+            this.checksum = checksum;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Returns whether this entry describes a file of the given size and modification time, and so can be trusted
+         * for it.
+         */
+        public boolean isCurrent(final long size, final long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+
+        public void setChecksum(long checksum) {
+            this.checksum = checksum;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package net.jonathangiles.tools.sitebuilder.build;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event covering the parsing or rendering of a single page.
+ */
+@Name("sitebuilder.Page")
+@Label("Page")
+@Category("Site Builder")
+@Description("Parsing or rendering of a single page")
+@StackTrace(false)
+class PageEvent extends jdk.jfr.Event {
+    @Label("Slug")
+    String slug;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Bytes")
+    @Description("Bytes read when parsing, or written when rendering")
+    @DataAmount
+    long bytes;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread, or -1 if the JVM does not expose this")
+    @DataAmount
+    long allocated;
+}
@@ -0,0 +1,20 @@
+package net.jonathangiles.tools.sitebuilder.build;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event covering one phase of a build, such as loading templates or processing content.
+ */
+@Name("sitebuilder.BuildPhase")
+@Label("Build Phase")
+@Category("Site Builder")
+@Description("A phase of a site build")
+@StackTrace(false)
+class PhaseEvent extends jdk.jfr.Event {
+    @Label("Phase")
+    String phase;
+}
@@ -0,0 +1,125 @@
+package net.jonathangiles.tools.sitebuilder.build;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.jonathangiles.tools.sitebuilder.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static net.jonathangiles.tools.sitebuilder.SiteBuilder.OUTPUT_DIR;
+
+/**
+ * The outputs that {@link Precompressor} compressed but did not keep, as they did not compress well enough, along with
+ * their size and modification time at the time, keyed by their path relative to the output directory. It is persisted
+ * under target/ between builds, so that such outputs are not compressed again until they change.
+ */
+public class PrecompressionSkips {
+    // bump this whenever the way outputs are compressed changes
+    public static final int VERSION = 1;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private int version = VERSION;
+
+    // path relative to the output directory -> output
+    private Map<String, Skipped> outputs = new ConcurrentSkipListMap<>();
+
+    /**
+     * Loads the skips at the given path, returning an empty set of skips if there are none or they can not be read.
+     */
+    public static PrecompressionSkips load(final Path path) {
+        if (!Files.isRegularFile(path)) {
+            return new PrecompressionSkips();
+        }
+        try {
+            final PrecompressionSkips skips = MAPPER.readValue(path.toFile(), PrecompressionSkips.class);
+            return skips.version == VERSION ? skips : new PrecompressionSkips();
+        } catch (IOException e) {
+            System.err.println("Could not read precompression skips " + path + ", compressing all outputs: "
+                    + e.getMessage());
+            return new PrecompressionSkips();
+        }
+    }
+
+    /**
+     * Saves the skips, dropping those for outputs that no longer exist.
+     */
+    public void save(final Path path) throws IOException {
+        outputs.keySet().removeIf(key -> !new File(OUTPUT_DIR, key).isFile());
+
+        Files.createDirectories(path.getParent());
+        final Path tempFile = FileUtils.createTempSibling(path);
+        try {
+            MAPPER.writeValue(tempFile.toFile(), this);
+            FileUtils.moveAtomically(tempFile, path);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Returns whether the given output was skipped when it last had the given size and modification time.
+     */
+    public boolean isSkipped(final Path file, final long size, final long lastModified) {
+        final Skipped skipped = outputs.get(OutputIndex.key(file));
+        return skipped != null && skipped.size == size && skipped.lastModified == lastModified;
+    }
+
+    public void skip(final Path file, final long size, final long lastModified) {
+        outputs.put(OutputIndex.key(file), new Skipped(size, lastModified));
+    }
+
+    public void remove(final Path file) {
+        outputs.remove(OutputIndex.key(file));
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public Map<String, Skipped> getOutputs() {
+        return outputs;
+    }
+
+    public void setOutputs(Map<String, Skipped> outputs) {
+        this.outputs = new ConcurrentSkipListMap<>(outputs);
+    }
+
+    public static class Skipped {
+        private long size;
+        private long lastModified;
+
+        public Skipped() { }
+
+        public Skipped(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+    }
+}
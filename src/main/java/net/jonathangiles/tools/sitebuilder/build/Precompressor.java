@@ -0,0 +1,181 @@
+package net.jonathangiles.tools.sitebuilder.build;
+
+import net.jonathangiles.tools.sitebuilder.SiteBuildException;
+import net.jonathangiles.tools.sitebuilder.util.FileUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes gzip compressed copies of output files next to them (as 'file.html.gz'), for web servers that can serve
+ * precompressed files, such as nginx with gzip_static. Files are compressed at the highest level, in the background, as
+ * they are submitted. Files that are too small to benefit, or that do not compress well, are not compressed (and any
+ * existing compressed copy is removed). A compressed copy is given the modification time of the file it was compressed
+ * from, so that it is only compressed again once the file changes. Files that do not compress well are recorded in
+ * {@link PrecompressionSkips}, for the same reason.
+ */
+public class Precompressor {
+
+    public static final String EXTENSION = ".gz";
+
+    public enum Outcome { COMPRESSED, UNCHANGED, SKIPPED }
+
+    private static final Set<String> COMPRESSIBLE_TYPES = Set.of("html", "css", "js", "svg", "xml");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long minSize;
+    private final double maxRatio;
+    private final Consumer<Path> onOutput;
+    private final Path skipsPath;
+    private final PrecompressionSkips skips;
+
+    private final ExecutorService executor;
+    private final Queue<CompletableFuture<Void>> pending = new ConcurrentLinkedQueue<>();
+    private final Map<String, Throwable> failures = new ConcurrentSkipListMap<>();
+
+    private final AtomicInteger compressed = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    /**
+     * Creates a precompressor that compresses files of at least {@code minSize} bytes, keeping the compressed copy only
+     * if it is at most {@code maxRatio} of the size of the original. Every compressed copy that is written, or is
+     * already up to date, is passed to {@code onOutput}. Files that are not kept compressed are recorded at
+     * {@code skipsPath} each time {@link #awaitAll()} is called.
+     */
+    public Precompressor(long minSize, double maxRatio, int concurrency, Path skipsPath, Consumer<Path> onOutput) {
+        this.minSize = minSize;
+        this.maxRatio = maxRatio;
+        this.onOutput = onOutput;
+        this.skipsPath = skipsPath;
+        this.skips = PrecompressionSkips.load(skipsPath);
+        this.executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            final Thread thread = new Thread(runnable, "sitebuilder-precompress");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns whether files of the given name are compressed at all.
+     */
+    public static boolean isCompressible(final Path file) {
+        final String name = file.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSIBLE_TYPES.contains(name.substring(dot + 1).toLowerCase());
+    }
+
+    /**
+     * Compresses the given file in the background, if it is of a compressible type.
+     */
+    public void submit(final Path file) {
+        if (!isCompressible(file)) {
+            return;
+        }
+        pending.add(CompletableFuture.runAsync(() -> {
+            try {
+                compress(file);
+            } catch (IOException | RuntimeException e) {
+                failures.put(file.toString(), e);
+            }
+        }, executor));
+    }
+
+    /**
+     * Waits for all submitted files to be compressed, and prints a summary. Every file that could not be compressed is
+     * reported together. The precompressor can continue to be used afterwards.
+     */
+    public void awaitAll() {
+        CompletableFuture<Void> future;
+        while ((future = pending.poll()) != null) {
+            future.join();
+        }
+
+        System.out.println("Precompressed outputs: " + compressed.getAndSet(0) + " compressed, "
+                + unchanged.getAndSet(0) + " unchanged, " + skipped.getAndSet(0) + " skipped");
+        try {
+            skips.save(skipsPath);
+        } catch (IOException e) {
+            System.err.println("Could not save precompression skips " + skipsPath + ": " + e.getMessage());
+        }
+        if (!failures.isEmpty()) {
+            final Map<String, Throwable> reported = new ConcurrentSkipListMap<>(failures);
+            failures.clear();
+            throw new SiteBuildException(reported.size() + " outputs could not be compressed:", reported);
+        }
+    }
+
+    public Outcome compress(final Path file) throws IOException {
+        final Path target = file.resolveSibling(file.getFileName() + EXTENSION);
+        final long size = Files.size(file);
+        if (size < minSize) {
+            Files.deleteIfExists(target);
+            skipped.incrementAndGet();
+            return Outcome.SKIPPED;
+        }
+
+        final FileTime lastModified = Files.getLastModifiedTime(file);
+        if (skips.isSkipped(file, size, lastModified.toMillis())) {
+            // it did not compress well last time, and has not changed since
+            Files.deleteIfExists(target);
+            skipped.incrementAndGet();
+            return Outcome.SKIPPED;
+        }
+        if (Files.isRegularFile(target) && Files.getLastModifiedTime(target).equals(lastModified)) {
+            onOutput.accept(target);
+            unchanged.incrementAndGet();
+            return Outcome.UNCHANGED;
+        }
+
+        final Path tempFile = FileUtils.createTempSibling(target);
+        try {
+            try (InputStream in = Files.newInputStream(file);
+                 OutputStream out = new MaxCompressionGZIPOutputStream(Files.newOutputStream(tempFile,
+                         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+                in.transferTo(out);
+            }
+
+            if (Files.size(tempFile) > size * maxRatio) {
+                // not worth serving compressed
+                Files.deleteIfExists(target);
+                skips.skip(file, size, lastModified.toMillis());
+                skipped.incrementAndGet();
+                return Outcome.SKIPPED;
+            }
+
+            skips.remove(file);
+            Files.setLastModifiedTime(tempFile, lastModified);
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        onOutput.accept(target);
+        compressed.incrementAndGet();
+        return Outcome.COMPRESSED;
+    }
+
+    private static final class MaxCompressionGZIPOutputStream extends GZIPOutputStream {
+        MaxCompressionGZIPOutputStream(OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package net.jonathangiles.tools.sitebuilder.build;
+
+import net.jonathangiles.tools.sitebuilder.SiteBuildException;
+import net.jonathangiles.tools.sitebuilder.util.FileUtils;
+import net.jonathangiles.tools.sitebuilder.util.Hashing;
+import net.jonathangiles.tools.sitebuilder.util.SitePaths;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Brings the static files in the output directory up to date with www/static, only copying the files that differ.
+ * A file is considered up to date if the output has the same size and modification time, or failing that, the same
+ * content hash. Files are copied (or linked) in parallel, with a bounded number of concurrent I/O operations.
+ */
+public class StaticResourceSync {
+
+    public enum Mode {
+        /** Copy each file into the output directory. */
+        COPY,
+
+        /**
+         * Hard link each file into the output directory, which avoids copying any data. Files on a different
+         * filesystem to the output directory, which can not be linked, are copied instead.
+         */
+        HARD_LINK
+    }
+
+    public enum Outcome { COPIED, LINKED, UNCHANGED }
+
+    private final Path staticPath;
+    private final Mode mode;
+    private final int concurrency;
+
+    private final AtomicInteger copied = new AtomicInteger();
+    private final AtomicInteger linked = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+
+    public StaticResourceSync(Path staticPath, Mode mode, int concurrency) {
+        this.staticPath = staticPath;
+        this.mode = mode;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Syncs all the given files, reporting every file that could not be synced together once all files are done.
+     */
+    public void syncAll(final List<Path> files) {
+        final long start = System.currentTimeMillis();
+        final Map<String, Throwable> failures = new ConcurrentSkipListMap<>();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            for (Path file : files) {
+                executor.execute(() -> {
+                    try {
+                        sync(file);
+                    } catch (IOException | RuntimeException e) {
+                        failures.put(file.toString(), e);
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while syncing static files", e);
+        }
+
+        System.out.println("Synced static files: " + copied.get() + " copied, " + linked.get() + " linked, "
+                + unchanged.get() + " unchanged in " + (System.currentTimeMillis() - start) + "ms");
+        if (!failures.isEmpty()) {
+            throw new SiteBuildException(failures.size() + " static files could not be synced:", failures);
+        }
+    }
+
+    public Outcome sync(final Path file) throws IOException {
+        final Path target = SitePaths.createRelativePath(staticPath, file);
+        if (isUpToDate(file, target)) {
+            unchanged.incrementAndGet();
+            return Outcome.UNCHANGED;
+        }
+
+        Files.createDirectories(target.getParent());
+        if (mode == Mode.HARD_LINK && link(file, target)) {
+            System.out.println("Linking static file: " + target);
+            linked.incrementAndGet();
+            return Outcome.LINKED;
+        }
+
+        System.out.println("Copying static file: " + target);
+        final Path tempFile = FileUtils.createTempSibling(target);
+        try {
+            Files.copy(file, tempFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        copied.incrementAndGet();
+        return Outcome.COPIED;
+    }
+
+    private static boolean link(final Path file, final Path target) throws IOException {
+        try {
+            Files.deleteIfExists(target);
+            Files.createLink(target, file.toAbsolutePath());
+            return true;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // most likely the output directory is on a different filesystem, so fall back to copying
+            return false;
+        }
+    }
+
+    private static boolean isUpToDate(final Path file, final Path target) throws IOException {
+        if (!Files.isRegularFile(target)) {
+            return false;
+        }
+
+        final BasicFileAttributes source = Files.readAttributes(file, BasicFileAttributes.class);
+        final BasicFileAttributes output = Files.readAttributes(target, BasicFileAttributes.class);
+        if (source.size() != output.size()) {
+            return false;
+        }
+        if (source.lastModifiedTime().equals(output.lastModifiedTime()) || Files.isSameFile(file, target)) {
+            return true;
+        }
+
+        // same size but a different modification time (e.g. after a fresh checkout) - compare the content, and if it
+        // matches, bring the modification time in line so that the next build can take the fast path
+        if (Hashing.hash(file).equals(Hashing.hash(target))) {
+            Files.setLastModifiedTime(target, source.lastModifiedTime());
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,221 @@
+package net.jonathangiles.tools.sitebuilder.feeds;
+
+import net.jonathangiles.tools.sitebuilder.models.SiteContent;
+import net.jonathangiles.tools.sitebuilder.templates.AssetResolver;
+import net.jonathangiles.tools.sitebuilder.util.SitePaths;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.List;
+
+import static net.jonathangiles.tools.sitebuilder.feeds.XmlOutput.*;
+
+/**
+ * Writes RSS 2.0 and Atom feeds of posts. Each post is written into the output as it is reached, and with full content
+ * feeds the body of each post is streamed into the output a little at a time (straight from its file or parse cache
+ * entry, where the body is not already in memory), resolving asset directives as it goes, so neither a feed nor a body
+ * is built up in memory. Feeds only depend on the posts, and not on when they are written, so building the same site
+ * twice gives the same feeds.
+ */
+public class FeedWriter {
+    private static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    // Atom requires an updated date, which is the date of the newest post, or this if none of the posts have a date
+    private static final LocalDate NO_DATE = LocalDate.of(1970, 1, 1);
+
+    private final String siteUrl;
+    private final String title;
+    private final String description;
+    private final String author;
+    private boolean fullContent = true;
+    private AssetResolver assetResolver = new AssetResolver(null);
+
+    /**
+     * Creates a feed writer for the site at the given absolute URL. The description and author are optional.
+     */
+    public FeedWriter(String siteUrl, String title, String description, String author) {
+        this.siteUrl = siteUrl.endsWith("/") ? siteUrl.substring(0, siteUrl.length() - 1) : siteUrl;
+        this.title = title;
+        this.description = description;
+        this.author = author;
+    }
+
+    /**
+     * Sets whether the full body of each post is included in the feeds, rather than only its title and link. This is
+     * enabled by default.
+     */
+    public void setFullContent(boolean fullContent) {
+        this.fullContent = fullContent;
+    }
+
+    /**
+     * Sets the resolver for asset directives in the bodies of posts, which should be the one pages are rendered with.
+     * By default, assets are not fingerprinted.
+     */
+    public void setAssetResolver(AssetResolver assetResolver) {
+        this.assetResolver = assetResolver;
+    }
+
+    /**
+     * Writes an RSS 2.0 feed of the given posts, in the order given, which is expected to be newest first.
+     */
+    public void writeRss(final Writer out, final String feedPath, final List<? extends SiteContent> posts)
+            throws IOException {
+        writeDocument(out, xml -> {
+            xml.writeStartElement("rss");
+            xml.writeAttribute("version", "2.0");
+            xml.writeNamespace("atom", ATOM_NS);
+            xml.writeCharacters("\n");
+            xml.writeStartElement("channel");
+            xml.writeCharacters("\n");
+            writeElement(xml, "title", title);
+            writeElement(xml, "link", siteUrl + "/");
+            writeElement(xml, "description", description != null ? description : title);
+            xml.writeEmptyElement("atom", "link", ATOM_NS);
+            xml.writeAttribute("href", siteUrl + "/" + feedPath);
+            xml.writeAttribute("rel", "self");
+            xml.writeAttribute("type", "application/rss+xml");
+            xml.writeCharacters("\n");
+            final LocalDate updated = newestDate(posts);
+            if (updated != null) {
+                writeElement(xml, "lastBuildDate", toRfc822(updated));
+            }
+
+            for (SiteContent post : posts) {
+                final String url = SitePaths.createUrl(siteUrl, post);
+                xml.writeStartElement("item");
+                xml.writeCharacters("\n");
+                writeElement(xml, "title", post.getTitle());
+                writeElement(xml, "link", url);
+                xml.writeStartElement("guid");
+                xml.writeAttribute("isPermaLink", "true");
+                xml.writeCharacters(url);
+                xml.writeEndElement();
+                xml.writeCharacters("\n");
+                if (post.getDate() != null) {
+                    writeElement(xml, "pubDate", toRfc822(post.getDate()));
+                }
+                for (String category : post.getCategories()) {
+                    writeElement(xml, "category", category);
+                }
+                for (String tag : post.getTags()) {
+                    writeElement(xml, "category", tag);
+                }
+                if (fullContent) {
+                    xml.writeStartElement("description");
+                    writeContent(xml, post);
+                    xml.writeEndElement();
+                    xml.writeCharacters("\n");
+                }
+                xml.writeEndElement();
+                xml.writeCharacters("\n");
+            }
+
+            xml.writeEndElement();
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+        });
+    }
+
+    /**
+     * Writes an Atom feed of the given posts, in the order given, which is expected to be newest first.
+     */
+    public void writeAtom(final Writer out, final String feedPath, final List<? extends SiteContent> posts)
+            throws IOException {
+        writeDocument(out, xml -> {
+            xml.setDefaultNamespace(ATOM_NS);
+            xml.writeStartElement(ATOM_NS, "feed");
+            xml.writeDefaultNamespace(ATOM_NS);
+            xml.writeCharacters("\n");
+            writeElement(xml, "title", title);
+            if (description != null) {
+                writeElement(xml, "subtitle", description);
+            }
+            writeElement(xml, "id", siteUrl + "/");
+            writeLink(xml, null, siteUrl + "/");
+            writeLink(xml, "self", siteUrl + "/" + feedPath);
+            final LocalDate newest = newestDate(posts);
+            final LocalDate updated = newest != null ? newest : NO_DATE;
+            writeElement(xml, "updated", toRfc3339(updated));
+            if (author != null) {
+                xml.writeStartElement("author");
+                xml.writeCharacters("\n");
+                writeElement(xml, "name", author);
+                xml.writeEndElement();
+                xml.writeCharacters("\n");
+            }
+
+            for (SiteContent post : posts) {
+                final String url = SitePaths.createUrl(siteUrl, post);
+                xml.writeStartElement("entry");
+                xml.writeCharacters("\n");
+                writeElement(xml, "title", post.getTitle());
+                writeElement(xml, "id", url);
+                writeLink(xml, null, url);
+                if (post.getDate() != null) {
+                    writeElement(xml, "published", toRfc3339(post.getDate()));
+                    writeElement(xml, "updated", toRfc3339(post.getDate()));
+                } else {
+                    writeElement(xml, "updated", toRfc3339(updated));
+                }
+                for (String category : post.getCategories()) {
+                    writeCategory(xml, category);
+                }
+                for (String tag : post.getTags()) {
+                    writeCategory(xml, tag);
+                }
+                if (fullContent) {
+                    xml.writeStartElement("content");
+                    xml.writeAttribute("type", "html");
+                    writeContent(xml, post);
+                    xml.writeEndElement();
+                    xml.writeCharacters("\n");
+                }
+                xml.writeEndElement();
+                xml.writeCharacters("\n");
+            }
+
+            xml.writeEndElement();
+        });
+    }
+
+    // streams the body of the post into the element being written, as text
+    private void writeContent(final XMLStreamWriter xml, final SiteContent post) throws IOException {
+        final char[] buffer = new char[BUFFER_SIZE];
+        try (Reader in = post.openContent(); Writer out = assetResolver.rewriting(textWriter(xml))) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private static void writeLink(final XMLStreamWriter xml, final String rel, final String href)
+            throws XMLStreamException {
+        xml.writeEmptyElement("link");
+        if (rel != null) {
+            xml.writeAttribute("rel", rel);
+        }
+        xml.writeAttribute("href", href);
+        xml.writeCharacters("\n");
+    }
+
+    private static void writeCategory(final XMLStreamWriter xml, final String term) throws XMLStreamException {
+        xml.writeEmptyElement("category");
+        xml.writeAttribute("term", term);
+        xml.writeCharacters("\n");
+    }
+
+    private static LocalDate newestDate(final List<? extends SiteContent> posts) {
+        return posts.stream()
+                .map(SiteContent::getDate)
+                .filter(date -> date != null)
+                .max(LocalDate::compareTo)
+                .orElse(null);
+    }
+}
@@ -0,0 +1,72 @@
+package net.jonathangiles.tools.sitebuilder.feeds;
+
+import net.jonathangiles.tools.sitebuilder.models.SiteContent;
+import net.jonathangiles.tools.sitebuilder.util.SitePaths;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import static net.jonathangiles.tools.sitebuilder.feeds.XmlOutput.*;
+
+/**
+ * Writes sitemaps, as described at sitemaps.org. A single sitemap may list at most {@link #MAX_URLS} URLs, so larger
+ * sites are split over several sitemaps, which are listed in a sitemap index.
+ */
+public class SitemapWriter {
+    public static final int MAX_URLS = 50_000;
+
+    private static final String SITEMAP_NS = "http://www.sitemaps.org/schemas/sitemap/0.9";
+
+    private final String siteUrl;
+
+    public SitemapWriter(String siteUrl) {
+        this.siteUrl = siteUrl.endsWith("/") ? siteUrl.substring(0, siteUrl.length() - 1) : siteUrl;
+    }
+
+    /**
+     * Writes a sitemap listing the given content, which must be no more than {@link #MAX_URLS} items.
+     */
+    public void writeUrlSet(final Writer out, final List<? extends SiteContent> contents) throws IOException {
+        if (contents.size() > MAX_URLS) {
+            throw new IllegalArgumentException("A sitemap can not list more than " + MAX_URLS + " URLs");
+        }
+        writeDocument(out, xml -> {
+            xml.setDefaultNamespace(SITEMAP_NS);
+            xml.writeStartElement(SITEMAP_NS, "urlset");
+            xml.writeDefaultNamespace(SITEMAP_NS);
+            xml.writeCharacters("\n");
+            for (SiteContent content : contents) {
+                xml.writeStartElement("url");
+                xml.writeCharacters("\n");
+                writeElement(xml, "loc", SitePaths.createUrl(siteUrl, content));
+                if (content.getDate() != null) {
+                    writeElement(xml, "lastmod", content.getDate().toString());
+                }
+                xml.writeEndElement();
+                xml.writeCharacters("\n");
+            }
+            xml.writeEndElement();
+        });
+    }
+
+    /**
+     * Writes a sitemap index, listing the sitemaps at the given paths (relative to the root of the site).
+     */
+    public void writeIndex(final Writer out, final List<String> sitemapPaths) throws IOException {
+        writeDocument(out, xml -> {
+            xml.setDefaultNamespace(SITEMAP_NS);
+            xml.writeStartElement(SITEMAP_NS, "sitemapindex");
+            xml.writeDefaultNamespace(SITEMAP_NS);
+            xml.writeCharacters("\n");
+            for (String path : sitemapPaths) {
+                xml.writeStartElement("sitemap");
+                xml.writeCharacters("\n");
+                writeElement(xml, "loc", siteUrl + "/" + path);
+                xml.writeEndElement();
+                xml.writeCharacters("\n");
+            }
+            xml.writeEndElement();
+        });
+    }
+}
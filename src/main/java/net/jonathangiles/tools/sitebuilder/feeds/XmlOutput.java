@@ -0,0 +1,81 @@
+package net.jonathangiles.tools.sitebuilder.feeds;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Shared helpers for writing XML documents element by element with a StAX writer, so that large feeds and sitemaps
+ * are never held in memory as a whole.
+ */
+final class XmlOutput {
+    private static final XMLOutputFactory FACTORY = XMLOutputFactory.newFactory();
+
+    private XmlOutput() { }
+
+    interface XmlBody {
+        void write(XMLStreamWriter xml) throws XMLStreamException, IOException;
+    }
+
+    // writes a complete UTF-8 document to the given writer, which is flushed but not closed
+    static void writeDocument(final Writer out, final XmlBody body) throws IOException {
+        try {
+            final XMLStreamWriter xml = FACTORY.createXMLStreamWriter(out);
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeCharacters("\n");
+            body.write(xml);
+            xml.writeEndDocument();
+            xml.close();
+            out.write('\n');
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    static void writeElement(final XMLStreamWriter xml, final String name, final String text)
+            throws XMLStreamException {
+        xml.writeStartElement(name);
+        xml.writeCharacters(text == null ? "" : text);
+        xml.writeEndElement();
+        xml.writeCharacters("\n");
+    }
+
+    // returns a writer that writes what is written to it as (escaped) text in the element being written, so that text
+    // can be streamed into the document. Closing it does nothing
+    static Writer textWriter(final XMLStreamWriter xml) {
+        return new Writer() {
+            @Override
+            public void write(final char[] cbuf, final int off, final int len) throws IOException {
+                try {
+                    xml.writeCharacters(cbuf, off, len);
+                } catch (XMLStreamException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public void flush() {
+                // the document is flushed when it is finished
+            }
+
+            @Override
+            public void close() {
+                // the document is closed when it is finished
+            }
+        };
+    }
+
+    // dates are written as the start of the day, in UTC
+    static String toRfc822(final LocalDate date) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(date.atStartOfDay(ZoneOffset.UTC));
+    }
+
+    static String toRfc3339(final LocalDate date) {
+        return DateTimeFormatter.ISO_INSTANT.format(date.atStartOfDay(ZoneOffset.UTC).toInstant());
+    }
+}
@@ -0,0 +1,216 @@
+package net.jonathangiles.tools.sitebuilder.models;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Indexes of all registered posts - newest first, by year, by month, by tag and by category - that are kept up to date
+ * as posts are registered and removed, rather than being worked out from all content whenever they are needed. Each
+ * index is a {@link PostList}, which supports paging through it in time proportional to the size of the page.
+ */
+public class PostIndex {
+
+    /**
+     * The order of every index: newest first, and then by slug.
+     */
+    public static final Comparator<Post> ORDER = Comparator.comparing(Post::getDate,
+            Comparator.nullsLast(Comparator.<LocalDate>reverseOrder())).thenComparing(Post::getSlug);
+
+    private final PostList all = new PostList();
+    private final Map<Integer, PostList> byYear = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+    private final Map<YearMonth, PostList> byMonth = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+    private final Map<String, PostList> byTag = new ConcurrentSkipListMap<>();
+    private final Map<String, PostList> byCategory = new ConcurrentSkipListMap<>();
+
+    /**
+     * Adds the post to all indexes. This is safe to call from multiple threads.
+     */
+    public void add(final Post post) {
+        all.add(post);
+        if (post.getDate() != null) {
+            byYear.computeIfAbsent(post.getDate().getYear(), y -> new PostList()).add(post);
+            byMonth.computeIfAbsent(YearMonth.from(post.getDate()), m -> new PostList()).add(post);
+        }
+        post.getTags().forEach(tag -> byTag.computeIfAbsent(tag, t -> new PostList()).add(post));
+        post.getCategories().forEach(c -> byCategory.computeIfAbsent(c, t -> new PostList()).add(post));
+    }
+
+    /**
+     * Removes the post from all indexes.
+     */
+    public void remove(final Post post) {
+        all.remove(post);
+        if (post.getDate() != null) {
+            remove(byYear, post.getDate().getYear(), post);
+            remove(byMonth, YearMonth.from(post.getDate()), post);
+        }
+        post.getTags().forEach(tag -> remove(byTag, tag, post));
+        post.getCategories().forEach(category -> remove(byCategory, category, post));
+    }
+
+    private static <K> void remove(final Map<K, PostList> index, final K key, final Post post) {
+        final PostList posts = index.get(key);
+        if (posts != null && posts.remove(post) && posts.size() == 0) {
+            index.remove(key, posts);
+        }
+    }
+
+    /**
+     * Returns all posts, newest first.
+     */
+    public PostList getPosts() {
+        return all;
+    }
+
+    public PostList getPostsByYear(final int year) {
+        return byYear.getOrDefault(year, PostList.EMPTY);
+    }
+
+    public PostList getPostsByMonth(final YearMonth month) {
+        return byMonth.getOrDefault(month, PostList.EMPTY);
+    }
+
+    public PostList getPostsByTag(final String tag) {
+        return byTag.getOrDefault(tag, PostList.EMPTY);
+    }
+
+    public PostList getPostsByCategory(final String category) {
+        return byCategory.getOrDefault(category, PostList.EMPTY);
+    }
+
+    /**
+     * Returns the years that have posts, newest first.
+     */
+    public List<Integer> getYears() {
+        return new ArrayList<>(byYear.keySet());
+    }
+
+    /**
+     * Returns the months that have posts, newest first.
+     */
+    public List<YearMonth> getMonths() {
+        return new ArrayList<>(byMonth.keySet());
+    }
+
+    /**
+     * Returns all tags, in alphabetical order.
+     */
+    public List<String> getTags() {
+        return new ArrayList<>(byTag.keySet());
+    }
+
+    /**
+     * Returns all categories, in alphabetical order.
+     */
+    public List<String> getCategories() {
+        return new ArrayList<>(byCategory.keySet());
+    }
+
+    /**
+     * A sorted list of posts. Posts can be added and removed at any time, but the list is expected to be read mostly
+     * after all posts have been registered: the first read after a change takes a snapshot of the list, and every read
+     * after that (until the next change) is served from the snapshot.
+     */
+    public static final class PostList {
+        static final PostList EMPTY = new PostList();
+
+        private final ConcurrentSkipListSet<Post> posts = new ConcurrentSkipListSet<>(ORDER);
+        private final NavigableSet<Post> view = Collections.unmodifiableNavigableSet(posts);
+
+        // the posts as a list, for random access, or null if the posts have changed since it was last taken
+        private volatile List<Post> snapshot;
+
+        private synchronized void add(final Post post) {
+            posts.add(post);
+            snapshot = null;
+        }
+
+        private synchronized boolean remove(final Post post) {
+            snapshot = null;
+            return posts.remove(post);
+        }
+
+        private List<Post> snapshot() {
+            List<Post> list = snapshot;
+            if (list == null) {
+                synchronized (this) {
+                    list = snapshot;
+                    if (list == null) {
+                        snapshot = list = Collections.unmodifiableList(new ArrayList<>(posts));
+                    }
+                }
+            }
+            return list;
+        }
+
+        public int size() {
+            return snapshot().size();
+        }
+
+        /**
+         * Returns an unmodifiable, live view of the posts, in order.
+         */
+        public NavigableSet<Post> asSet() {
+            return view;
+        }
+
+        /**
+         * Returns all posts, in order.
+         */
+        public List<Post> asList() {
+            return snapshot();
+        }
+
+        /**
+         * Returns up to {@code limit} posts, starting from the given offset.
+         */
+        public List<Post> get(final int offset, final int limit) {
+            if (offset < 0 || limit < 0) {
+                throw new IllegalArgumentException("Offset and limit must not be negative");
+            }
+            final List<Post> list = snapshot();
+            final int from = Math.min(offset, list.size());
+            return list.subList(from, (int) Math.min((long) from + limit, list.size()));
+        }
+
+        /**
+         * Returns the given page of posts, where the first page is page 1.
+         */
+        public List<Post> getPage(final int page, final int pageSize) {
+            if (page < 1 || pageSize < 1) {
+                throw new IllegalArgumentException("Page and page size must be at least 1");
+            }
+            return get((int) Math.min((long) (page - 1) * pageSize, Integer.MAX_VALUE), pageSize);
+        }
+
+        public int getPageCount(final int pageSize) {
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("Page size must be at least 1");
+            }
+            return (size() + pageSize - 1) / pageSize;
+        }
+
+        /**
+         * Returns up to {@code limit} posts that come after (that is, are older than) the given post, which does not
+         * need to be in this list. This allows paging through the list from a known post, such as 'older posts' links.
+         */
+        public List<Post> getAfter(final Post post, final int limit) {
+            final List<Post> result = new ArrayList<>(Math.min(limit, 16));
+            for (Post p : posts.tailSet(post, false)) {
+                if (result.size() == limit) {
+                    break;
+                }
+                result.add(p);
+            }
+            return result;
+        }
+    }
+}
@@ -5,11 +5,22 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlCData;
 import net.jonathangiles.tools.sitebuilder.models.input.InputFile;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class SiteContent {
 
@@ -32,26 +43,115 @@ public class SiteContent {
     @JsonProperty("Template")
     private String template;
 
+    // null until they are set, so that the 'categories' and 'tags' properties are only set once they are
+    @JsonProperty("Categories")
+    private List<String> categories;
+
+    @JsonProperty("Tags")
+    private List<String> tags;
+
     @JsonIgnore
     private String relativePath;
 
     @JsonIgnore
     private Path fullOutputPath;
 
+    // the file this content was read from, or null if it was not read from a file
+    @JsonIgnore
+    private Path sourcePath;
+
+    // the hash and size (in bytes) of what this content was read from, when that is only part of its source file (such
+    // as an item in a WordPress export), or null and -1 when it is the whole file
+    @JsonIgnore
+    private String sourceHash;
+
+    @JsonIgnore
+    private long sourceSize = -1;
+
+    // the paths of the assets the body has directives for, or null until the body is first looked at
+    @JsonIgnore
+    private Set<String> assetReferences;
+
+    // where the content comes from, until it is first needed
+    @JsonIgnore
+    private InputFile inputFile;
+
+    // when false, the body of content read from a file is read again every time it is needed, rather than being kept
+    @JsonIgnore
+    private boolean retainContent = true;
+
+    // properties set through setProperty, which override those worked out from the fields. Null until one is set, as
+    // most content has none
     @JsonIgnore
-    private final Map<String, String> properties = new HashMap<>();
+    private Map<String, String> extraProperties;
 
     public SiteContent() {    }
 
     public SiteContent(InputFile inputFile) {
-        setContent(inputFile.getBody());
+        this.inputFile = inputFile;
         inputFile.getFrontMatterValue("title").ifPresent(this::setTitle);
         inputFile.getFrontMatterValue("date").ifPresent(d -> setDate(LocalDate.parse(d)));
         inputFile.getFrontMatterValue("slug").ifPresent(this::setSlug);
         inputFile.getFrontMatterValue("template").ifPresent(this::setTemplate);
-//        this.status = PostStatus.valueOf(mdFile.getFrontMatterValue("status").toUpperCase());
-//        this.categories = mdFile.getFrontMatterValue("categories");
-//        this.tags = mdFile.getFrontMatterValue("tags");
+        inputFile.getFrontMatterValue("status").ifPresent(s -> {
+            if (s.equalsIgnoreCase("draft")) {
+                setStatus(SiteContentStatus.DRAFT);
+            } else if (s.equalsIgnoreCase("publish")) {
+                setStatus(SiteContentStatus.PUBLISH);
+            }
+        });
+        if (inputFile.hasFrontMatter("categories")) {
+            setCategories(splitValues(inputFile.getFrontMatterList("categories")));
+        }
+        if (inputFile.hasFrontMatter("tags")) {
+            setTags(splitValues(inputFile.getFrontMatterList("tags")));
+        }
+    }
+
+    // multi-valued front matter may be given as a YAML list (either a block list, or a flow list such as '[a, "b"]',
+    // which arrives as a single value), or as a single comma-separated value (which is the only option in html and xml
+    // files). Commas inside quoted values do not split them
+    private static List<String> splitValues(List<String> values) {
+        final List<String> result = new ArrayList<>();
+        for (String value : values) {
+            value = value.trim();
+            if (value.length() >= 2 && value.charAt(0) == '[' && value.charAt(value.length() - 1) == ']') {
+                value = value.substring(1, value.length() - 1);
+            }
+
+            int start = 0;
+            char quote = 0;
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == ',') {
+                    addValue(result, unquote(value.substring(start, i).trim()));
+                    start = i + 1;
+                }
+            }
+            addValue(result, unquote(value.substring(start).trim()));
+        }
+        return result;
+    }
+
+    private static void addValue(final List<String> result, final String value) {
+        if (!value.isEmpty() && !result.contains(value)) {
+            result.add(value);
+        }
+    }
+
+    // removes the quotes from around a quoted value
+    private static String unquote(final String value) {
+        if (value.length() >= 2 && (value.charAt(0) == '"' || value.charAt(0) == '\'')
+                && value.charAt(value.length() - 1) == value.charAt(0)) {
+            return value.substring(1, value.length() - 1).trim();
+        }
+        return value;
     }
 
 //    public int getId() {
@@ -69,16 +169,47 @@ public class SiteContent {
 
     public void setTitle(String title) {
         this.title = title;
-        properties.put("title", title);
     }
 
+    /**
+     * Returns the body of this content. For content read from a file, the body is only read (and rendered) the first
+     * time this is called, unless the content is not retained, in which case it is read every time.
+     */
     public String getContent() {
+        if (content == null && inputFile != null) {
+            if (!retainContent) {
+                return inputFile.readBody();
+            }
+            setContent(inputFile.getBody());
+        }
         return content;
     }
 
+    /**
+     * Opens the body of this content for reading a little at a time, without keeping it. Where the body of content read
+     * from a file is stored as it is (in the file, or the parse cache), it is read straight from there, rather than into
+     * memory as a whole.
+     */
+    public Reader openContent() throws IOException {
+        if (content == null && inputFile != null) {
+            return inputFile.openBody();
+        }
+        return new StringReader(content == null ? "" : content);
+    }
+
     public void setContent(String content) {
         this.content = content;
-        properties.put("content", content);
+        this.inputFile = null;
+        this.assetReferences = null;
+    }
+
+    /**
+     * Sets whether the body of content read from a file is kept once it has been read. When it is not, only the
+     * metadata of the content stays in memory, and the body is read (from the file, or the parse cache) whenever it is
+     * needed. Content is retained by default.
+     */
+    public void setRetainContent(boolean retainContent) {
+        this.retainContent = retainContent;
     }
 
     public LocalDate getDate() {
@@ -87,7 +218,6 @@ public class SiteContent {
 
     public void setDate(LocalDate date) {
         this.date = date;
-        properties.put("date", date.toString());
     }
 
     public String getSlug() {
@@ -96,7 +226,6 @@ public class SiteContent {
 
     public void setSlug(String slug) {
         this.slug = slug;
-        properties.put("slug", slug);
     }
 
     public String getTemplate() {
@@ -107,13 +236,28 @@ public class SiteContent {
         this.template = template;
     }
 
+    public List<String> getCategories() {
+        return categories == null ? Collections.emptyList() : categories;
+    }
+
+    public void setCategories(List<String> categories) {
+        this.categories = Collections.unmodifiableList(new ArrayList<>(categories));
+    }
+
+    public List<String> getTags() {
+        return tags == null ? Collections.emptyList() : tags;
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = Collections.unmodifiableList(new ArrayList<>(tags));
+    }
+
     public SiteContentStatus getStatus() {
         return status;
     }
 
     public void setStatus(SiteContentStatus status) {
         this.status = status;
-        properties.put("status", status.toString());
     }
 
     public String getRelativePath() {
@@ -122,7 +266,6 @@ public class SiteContent {
 
     public void setRelativePath(String relativePath) {
         this.relativePath = relativePath;
-        properties.put("relativePath", relativePath);
     }
 
     public Path getFullOutputPath() {
@@ -131,12 +274,159 @@ public class SiteContent {
 
     public void setFullOutputPath(Path fullOutputPath) {
         this.fullOutputPath = fullOutputPath;
-        properties.put("fullOutputPath", fullOutputPath.toString());
     }
 
-    // TODO delete this method entirely!
+    public Path getSourcePath() {
+        return sourcePath;
+    }
+
+    public void setSourcePath(Path sourcePath) {
+        this.sourcePath = sourcePath;
+    }
+
+    public String getSourceHash() {
+        return sourceHash;
+    }
+
+    public void setSourceHash(String sourceHash) {
+        this.sourceHash = sourceHash;
+    }
+
+    public long getSourceSize() {
+        return sourceSize;
+    }
+
+    public void setSourceSize(long sourceSize) {
+        this.sourceSize = sourceSize;
+    }
+
+    public Set<String> getAssetReferences() {
+        return assetReferences;
+    }
+
+    public void setAssetReferences(Set<String> assetReferences) {
+        this.assetReferences = assetReferences;
+    }
+
+    /**
+     * Returns the value of the given template property, or null if it is not set. Properties are worked out from the
+     * fields of this content as they are asked for, and this only reads the body of the content if the 'content'
+     * property is asked for.
+     */
+    public String getProperty(String key) {
+        if (extraProperties != null && extraProperties.containsKey(key)) {
+            return extraProperties.get(key);
+        }
+        switch (key) {
+            case "title": return title;
+            case "content": return getContent();
+            case "date": return date == null ? null : date.toString();
+            case "slug": return slug;
+            case "status": return status == null ? null : status.toString();
+            case "categories": return categories == null ? null : String.join(", ", categories);
+            case "tags": return tags == null ? null : String.join(", ", tags);
+            case "relativePath": return relativePath;
+            case "fullOutputPath": return fullOutputPath == null ? null : fullOutputPath.toString();
+            default: return null;
+        }
+    }
+
+    /**
+     * Returns the names of all template properties that are set, in alphabetical order, without reading the body of
+     * the content.
+     */
+    public Set<String> getPropertyNames() {
+        final Set<String> names = new TreeSet<>();
+        addIfSet(names, "title", title);
+        addIfSet(names, "content", content != null ? content : inputFile);
+        addIfSet(names, "date", date);
+        addIfSet(names, "slug", slug);
+        addIfSet(names, "status", status);
+        addIfSet(names, "categories", categories);
+        addIfSet(names, "tags", tags);
+        addIfSet(names, "relativePath", relativePath);
+        addIfSet(names, "fullOutputPath", fullOutputPath);
+        if (extraProperties != null) {
+            names.addAll(extraProperties.keySet());
+        }
+        return names;
+    }
+
+    /**
+     * Sets a template property that is not one of the fields of this content (or overrides one that is), such as a
+     * custom property added by a subclass. Setting a property to null removes it.
+     */
+    public void setProperty(String key, String value) {
+        if (value == null) {
+            if (extraProperties != null) {
+                extraProperties.remove(key);
+            }
+            return;
+        }
+        if (extraProperties == null) {
+            extraProperties = new HashMap<>();
+        }
+        extraProperties.put(key, value);
+    }
+
+    private static void addIfSet(final Set<String> names, final String name, final Object value) {
+        if (value != null) {
+            names.add(name);
+        }
+    }
+
+    /**
+     * Returns a view of the template properties. The view holds nothing itself - each value is worked out from this
+     * content when it is read, and the body is read whenever the 'content' property is. Putting a property into the
+     * view sets it with {@link #setProperty(String, String)}.
+     */
     public Map<String, String> getProperties() {
-        return properties;
+        return new AbstractMap<String, String>() {
+            @Override
+            public String get(Object key) {
+                return key instanceof String ? getProperty((String) key) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return getPropertyNames().contains(key);
+            }
+
+            @Override
+            public String put(String key, String value) {
+                final String previous = getProperty(key);
+                setProperty(key, value);
+                return previous;
+            }
+
+            @Override
+            public Set<Entry<String, String>> entrySet() {
+                final Set<String> names = getPropertyNames();
+                return new AbstractSet<Entry<String, String>>() {
+                    @Override
+                    public Iterator<Entry<String, String>> iterator() {
+                        final Iterator<String> it = names.iterator();
+                        return new Iterator<Entry<String, String>>() {
+                            @Override
+                            public boolean hasNext() {
+                                return it.hasNext();
+                            }
+
+                            @Override
+                            public Entry<String, String> next() {
+                                final String name = it.next();
+                                return new SimpleImmutableEntry<>(name, getProperty(name));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return names.size();
+                    }
+                };
+            }
+        };
     }
 
     @Override
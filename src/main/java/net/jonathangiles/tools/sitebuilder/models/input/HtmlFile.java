@@ -1,35 +1,93 @@
 package net.jonathangiles.tools.sitebuilder.models.input;
 
-import net.jonathangiles.tools.sitebuilder.util.FileUtils;
+import net.jonathangiles.tools.sitebuilder.util.SourceFiles;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * An html page, with its front matter as 'key: value' lines in a comment at the top of the file:
+ *
+ * <pre>
+ * &lt;!--
+ * title: Home
+ * slug: /index
+ * --&gt;
+ * </pre>
+ *
+ * Only the comment is read when the file is read. The body is everything after the line that closes the comment, and
+ * is read straight from that offset in the file when it is needed.
+ */
 public class HtmlFile implements InputFile {
     private final Map<String, List<String>> frontMatter;
 
-    private final String content;
+    private final Path file;
 
-    private HtmlFile(Map<String, List<String>> frontMatter, String content) {
+    // the offset, in bytes, at which the body starts in the file
+    private final long bodyOffset;
+
+    // the body, which is only read when it is first asked for
+    private volatile String content;
+
+    private HtmlFile(Map<String, List<String>> frontMatter, Path file, long bodyOffset) {
         this.frontMatter = frontMatter;
-        this.content = content;
+        this.file = file;
+        this.bodyOffset = bodyOffset;
+    }
+
+    static HtmlFile fromPath(Path htmlFile) {
+        // only the front matter comment is read now - the body is read if and when it is needed
+        final Map<String, List<String>> frontMatter = new HashMap<>();
+        try (InputStream in = SourceFiles.newInputStream(htmlFile)) {
+            final long bodyOffset = scanFrontMatter(in, frontMatter);
+            return new HtmlFile(frontMatter, htmlFile, bodyOffset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override public String getBody() {
+        String body = content;
+        if (body == null) {
+            synchronized (this) {
+                body = content;
+                if (body == null) {
+                    content = body = read();
+                }
+            }
+        }
+        return body;
     }
 
-    static HtmlFile fromFile(File htmlFile) {
-        // read the contents of the html file into a string, and parse the front matter into a map
-        String html = FileUtils.readFile(htmlFile.toPath());
-        final Map<String, List<String>> frontMatter = readFrontMatter(html);
+    @Override
+    public String readBody() {
+        final String body = content;
+        return body != null ? body : read();
+    }
 
-        // strip the front matter from just the top of the html content
-        html = html.replaceFirst("<!--.*?-->", "");
+    @Override
+    public Reader openBody() throws IOException {
+        final String body = content;
+        return body != null ? new StringReader(body) : SourceFiles.newReader(file, bodyOffset);
+    }
 
-        return new HtmlFile(frontMatter, html);
+    // reads the file from the start of the body, so the front matter is neither read again nor stripped out
+    private String read() {
+        return SourceFiles.readString(file, bodyOffset);
     }
 
-    @Override public String getBody() {
-        return content;
+    // all front matter, as it is stored in the parse cache
+    Map<String, List<String>> getFrontMatter() {
+        return frontMatter;
     }
 
     @Override
@@ -42,25 +100,85 @@ public class HtmlFile implements InputFile {
         return !frontMatter.isEmpty();
     }
 
-    // reads the front matter from an HTML comment
-    private static Map<String, List<String>> readFrontMatter(final String html) {
-        final Map<String, List<String>> frontMatter = new HashMap<>();
+    /**
+     * Reads the front matter comment at the top of the stream into the given map, stopping at the end of the line that
+     * closes the comment, and returns the offset (in bytes) of the body that follows it. If the stream does not start
+     * with a comment, there is no front matter and the body starts at the beginning. Each line in the comment is split
+     * at its first ':', so values may themselves contain ':', as URLs and times do.
+     */
+    static long scanFrontMatter(final InputStream in, final Map<String, List<String>> frontMatter) throws IOException {
+        final LineReader lines = new LineReader(in);
+        long offset = lines.next();
+        if (offset < 0 || !lines.startsWith("<!--")) {
+            return 0;
+        }
 
-        final String[] lines = html.split("\n");
-        if (lines.length > 0 && lines[0].startsWith("<!--")) {
-            int i = 1;
-            while (i < lines.length && !lines[i].startsWith("-->")) {
-                final String line = lines[i];
-                final String[] split = line.split(":");
-                if (split.length == 2) {
-                    final String key = split[0].trim();
-                    final String value = split[1].trim();
+        long length;
+        while ((length = lines.next()) >= 0) {
+            offset += length;
+            if (lines.startsWith("-->")) {
+                break;
+            }
+
+            final String line = lines.text();
+            final int colon = line.indexOf(':');
+            if (colon > 0) {
+                final String key = line.substring(0, colon).trim();
+                final String value = line.substring(colon + 1).trim();
+                if (!key.isEmpty() && !value.isEmpty()) {
                     frontMatter.put(key, List.of(value));
                 }
-                i++;
             }
         }
+        return offset;
+    }
 
-        return frontMatter;
+    // reads a stream a line at a time, as bytes, so that the number of bytes each line takes up in the file is known
+    private static final class LineReader {
+        private final InputStream in;
+        private byte[] line = new byte[128];
+        private int length;
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        // reads the next line, without its line terminator, returning the number of bytes read (including the line
+        // terminator), or -1 at the end of the stream
+        long next() throws IOException {
+            length = 0;
+            long count = 0;
+            int b;
+            while ((b = in.read()) >= 0) {
+                count++;
+                if (b == '\n') {
+                    break;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = (byte) b;
+            }
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            return count == 0 ? -1 : count;
+        }
+
+        boolean startsWith(final String prefix) {
+            if (length < prefix.length()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (line[i] != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String text() {
+            return new String(line, 0, length, StandardCharsets.UTF_8);
+        }
     }
 }
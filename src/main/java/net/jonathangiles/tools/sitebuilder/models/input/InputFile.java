@@ -1,14 +1,40 @@
 package net.jonathangiles.tools.sitebuilder.models.input;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 
+/**
+ * A page or post read from disk. Reading an input file only reads its front matter - the body is read (and, for
+ * markdown, rendered) the first time {@link #getBody()} is called, and is then remembered, so that files which turn out
+ * not to be needed (such as drafts) are never fully processed. Files are read through
+ * {@link net.jonathangiles.tools.sitebuilder.util.SourceFiles}, so they may be on the file system or on the classpath.
+ */
 public interface InputFile {
 
     String getBody();
 
+    /**
+     * Reads the body without remembering it, so that it is read (and rendered) again the next time it is needed, rather
+     * than staying in memory. If the body has already been remembered by {@link #getBody()}, that is returned.
+     */
+    default String readBody() {
+        return getBody();
+    }
+
+    /**
+     * Opens the body for reading a little at a time, without remembering it. Where the body is stored as it is (such as
+     * the body of an html file, or a body in the parse cache), it is read straight from where it is stored, rather than
+     * into memory as a whole. If the body has already been remembered by {@link #getBody()}, that is read.
+     */
+    default Reader openBody() throws IOException {
+        return new StringReader(readBody());
+    }
+
     List<String> getFrontMatterList(String key);
 
     default Optional<String> getFrontMatterValue(String key) {
@@ -26,30 +52,39 @@ public interface InputFile {
     }
 
     static InputFile fromPath(Path path) {
-        return fromFile(path.toFile());
+        final String name = path.getFileName().toString();
+        if (name.endsWith(".md")) {
+            return MarkdownFile.fromPath(path);
+        } else if (name.endsWith(".html")) {
+            return HtmlFile.fromPath(path);
+        } else if (name.endsWith(".xml")) {
+            return XmlFile.fromPath(path);
+        } else {
+            throw new RuntimeException("Unknown file type: " + name);
+        }
+    }
+
+    /**
+     * Reads the given file through the given cache, so that it is only parsed if it has changed since it was cached.
+     * If the cache is null, the file is always parsed.
+     */
+    static InputFile fromPath(Path path, ParseCache cache) {
+        return cache == null ? fromPath(path) : cache.read(path);
     }
 
     static InputFile fromFile(File file) {
-        if (file.getName().endsWith(".md")) {
-            return fromMarkdownFile(file);
-        } else if (file.getName().endsWith(".html")) {
-            return fromHtmlFile(file);
-        } else if (file.getName().endsWith(".xml")) {
-            return fromXmlFile(file);
-        } else {
-            throw new RuntimeException("Unknown file type: " + file.getName());
-        }
+        return fromPath(file.toPath());
     }
 
     static MarkdownFile fromMarkdownFile(File markdownFile) {
-        return MarkdownFile.fromFile(markdownFile);
+        return MarkdownFile.fromPath(markdownFile.toPath());
     }
 
     static HtmlFile fromHtmlFile(File htmlFile) {
-        return HtmlFile.fromFile(htmlFile);
+        return HtmlFile.fromPath(htmlFile.toPath());
     }
 
     static XmlFile fromXmlFile(File xmlFile) {
-        return XmlFile.fromFile(xmlFile);
+        return XmlFile.fromPath(xmlFile.toPath());
     }
 }
@@ -6,9 +6,13 @@ import org.commonmark.node.Node;
 import org.commonmark.parser.Parser;
 import org.commonmark.renderer.html.HtmlRenderer;
 
-import java.io.File;
-import java.io.FileReader;
+import net.jonathangiles.tools.sitebuilder.util.SourceFiles;
+
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -16,13 +20,19 @@ public class MarkdownFile implements InputFile {
     private static final Parser PARSER = Parser.builder().extensions(List.of(YamlFrontMatterExtension.create())).build();
     private static final HtmlRenderer HTML_RENDERER = HtmlRenderer.builder().build();
 
+    private static final String FRONT_MATTER_DELIMITER = "---";
+    private static final String FRONT_MATTER_END = "...";
+
     private final Map<String, List<String>> frontMatter;
 
-    private final String content;
+    private final Path file;
 
-    private MarkdownFile(Map<String, List<String>> frontMatter, String content) {
+    // the rendered body, which is only rendered when it is first asked for
+    private volatile String content;
+
+    private MarkdownFile(Map<String, List<String>> frontMatter, Path file) {
         this.frontMatter = frontMatter;
-        this.content = content;
+        this.file = file;
 
         // for markdown pages, we set the template to 'page', if one is not set, so that they look as expected
         if (!frontMatter.containsKey("template")) {
@@ -30,21 +40,63 @@ public class MarkdownFile implements InputFile {
         }
     }
 
-    static MarkdownFile fromFile(File markdownFile) {
-        Node document = null;
-        try {
-            document = PARSER.parseReader(new FileReader(markdownFile));
+    static MarkdownFile fromPath(Path markdownFile) {
+        // only the front matter is read now - the body is parsed and rendered if and when it is needed
+        return new MarkdownFile(readFrontMatter(markdownFile), markdownFile);
+    }
+
+    // reads just the YAML block at the top of the file, and parses it on its own
+    private static Map<String, List<String>> readFrontMatter(Path markdownFile) {
+        final StringBuilder header = new StringBuilder();
+        try (BufferedReader reader = SourceFiles.newReader(markdownFile)) {
+            String line = reader.readLine();
+            if (line == null || !line.equals(FRONT_MATTER_DELIMITER)) {
+                return new HashMap<>();
+            }
+            header.append(line).append('\n');
+            while ((line = reader.readLine()) != null) {
+                header.append(line).append('\n');
+                if (line.equals(FRONT_MATTER_DELIMITER) || line.equals(FRONT_MATTER_END)) {
+                    break;
+                }
+            }
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new UncheckedIOException(e);
         }
 
         YamlFrontMatterVisitor frontMatter = new YamlFrontMatterVisitor();
-        document.accept(frontMatter);
-        return new MarkdownFile(frontMatter.getData(), HTML_RENDERER.render(document));
+        PARSER.parse(header.toString()).accept(frontMatter);
+        return frontMatter.getData();
     }
 
     @Override public String getBody() {
-        return content;
+        String body = content;
+        if (body == null) {
+            synchronized (this) {
+                body = content;
+                if (body == null) {
+                    content = body = render();
+                }
+            }
+        }
+        return body;
+    }
+
+    @Override
+    public String readBody() {
+        final String body = content;
+        return body != null ? body : render();
+    }
+
+    // the whole file is read and decoded in one go, and then parsed
+    private String render() {
+        final Node document = PARSER.parse(SourceFiles.readString(file));
+        return HTML_RENDERER.render(document);
+    }
+
+    // all front matter, as it is stored in the parse cache
+    Map<String, List<String>> getFrontMatter() {
+        return frontMatter;
     }
 
     @Override
@@ -0,0 +1,503 @@
+package net.jonathangiles.tools.sitebuilder.models.input;
+
+import net.jonathangiles.tools.sitebuilder.util.FileUtils;
+import net.jonathangiles.tools.sitebuilder.util.Hashing;
+import net.jonathangiles.tools.sitebuilder.util.SourceFiles;
+import org.commonmark.ext.front.matter.YamlFrontMatterExtension;
+import org.commonmark.parser.Parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A cache of parsed input files on disk, so that files that have not changed since they were last parsed are read back
+ * without running commonmark or Jackson over them again. Each entry holds the front matter and the rendered body of one
+ * file, and is named by the hash of the file's content, its type and the versions of the parsers, so an entry is never
+ * out of date - a changed file (or parser) simply has a different entry. Entries that are no longer used are removed
+ * by {@link #trim()}, least recently used first, once the cache grows beyond its maximum size.
+ *
+ * <p>Each entry is a header (the front matter and the length of the body) and the body as UTF-8, each followed by a
+ * CRC32 of it. An entry that can not be read, or whose checksums do not match, is deleted and the file is parsed
+ * instead.</p>
+ */
+public class ParseCache {
+
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    private static final String EXTENSION = ".bin";
+    private static final int MAGIC = 0x53425043; // 'SBPC'
+    private static final int FORMAT_VERSION = 1;
+
+    // increase this whenever the way input files are parsed changes, so that entries made by the old code are not used
+    private static final int PARSER_VERSION = 3;
+
+    private static final String VERSION = FORMAT_VERSION + "/" + PARSER_VERSION + "/" + version(Parser.class) + "/"
+            + version(YamlFrontMatterExtension.class);
+
+    private enum Type { MARKDOWN, HTML, XML }
+
+    private final Path directory;
+    private final long maxSize;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger discarded = new AtomicInteger();
+
+    public ParseCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Reads the given file from the cache, or parses it if it is not cached. In the latter case, the file is added to
+     * the cache once its body has been rendered.
+     */
+    public InputFile read(final Path file) {
+        final Type type = typeOf(file);
+        final Path entry;
+        try {
+            entry = directory.resolve(key(file, type) + EXTENSION);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (Files.isRegularFile(entry)) {
+            final CachedFile cached = load(entry, file, type);
+            if (cached != null) {
+                hits.incrementAndGet();
+                touch(entry);
+                return cached;
+            }
+        }
+
+        misses.incrementAndGet();
+        return new StoringFile(InputFile.fromPath(file), entry, type);
+    }
+
+    /**
+     * Removes the least recently used entries until the cache is no larger than its maximum size, and prints a summary
+     * of how the cache has been used since this was last called.
+     */
+    public void trim() {
+        int evicted = 0;
+        if (Files.isDirectory(directory)) {
+            final List<Path> entries;
+            try (Stream<Path> files = Files.list(directory)) {
+                entries = files.filter(path -> path.getFileName().toString().endsWith(EXTENSION))
+                        .collect(Collectors.toList());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            // newest first, so that everything after the maximum size is reached is evicted
+            final Map<Path, FileTime> lastUsed = new HashMap<>();
+            final Map<Path, Long> sizes = new HashMap<>();
+            for (Path entry : entries) {
+                try {
+                    lastUsed.put(entry, Files.getLastModifiedTime(entry));
+                    sizes.put(entry, Files.size(entry));
+                } catch (IOException e) {
+                    // removed since it was listed
+                }
+            }
+            final List<Path> sorted = new ArrayList<>(lastUsed.keySet());
+            sorted.sort(Comparator.comparing(lastUsed::get, Comparator.reverseOrder()));
+
+            long size = 0;
+            for (Path entry : sorted) {
+                size += sizes.get(entry);
+                if (size > maxSize) {
+                    try {
+                        Files.deleteIfExists(entry);
+                        evicted++;
+                    } catch (IOException e) {
+                        System.err.println("Could not remove parse cache entry " + entry + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+
+        System.out.println("Parse cache: " + hits.getAndSet(0) + " hits, " + misses.getAndSet(0) + " misses, "
+                + discarded.getAndSet(0) + " corrupt entries discarded, " + evicted + " entries evicted");
+    }
+
+    private static Type typeOf(final Path file) {
+        final String name = file.getFileName().toString();
+        if (name.endsWith(".md")) {
+            return Type.MARKDOWN;
+        } else if (name.endsWith(".html")) {
+            return Type.HTML;
+        } else if (name.endsWith(".xml")) {
+            return Type.XML;
+        } else {
+            throw new RuntimeException("Unknown file type: " + name);
+        }
+    }
+
+    private static String key(final Path file, final Type type) throws IOException {
+        final MessageDigest digest = Hashing.newDigest();
+        Hashing.update(digest, VERSION);
+        Hashing.update(digest, type.name());
+        Hashing.update(digest, file);
+        return Hashing.toHex(digest.digest());
+    }
+
+    // the version of the library the given class is from, or failing that, the name of the jar it was loaded from
+    private static String version(final Class<?> type) {
+        final String version = type.getPackage() == null ? null : type.getPackage().getImplementationVersion();
+        if (version != null) {
+            return version;
+        }
+        try {
+            final String location = type.getProtectionDomain().getCodeSource().getLocation().getPath();
+            return location.substring(location.lastIndexOf('/', location.length() - 2) + 1);
+        } catch (RuntimeException e) {
+            return "unknown";
+        }
+    }
+
+    // marks the entry as recently used, for trim()
+    private static void touch(final Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // it is only evicted sooner
+        }
+    }
+
+    private void discard(final Path entry, final Exception cause) {
+        discarded.incrementAndGet();
+        System.err.println("Discarding parse cache entry " + entry + ": " + cause.getMessage());
+        try {
+            Files.deleteIfExists(entry);
+        } catch (IOException e) {
+            System.err.println("Could not remove parse cache entry " + entry + ": " + e.getMessage());
+        }
+    }
+
+    // reads the header of the given entry, returning null (and deleting the entry) if it is not valid
+    private CachedFile load(final Path entry, final Path source, final Type type) {
+        try {
+            final long entrySize = Files.size(entry);
+            final CRC32 crc = new CRC32();
+            try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                    new BufferedInputStream(Files.newInputStream(entry)), crc))) {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readByte() != type.ordinal()) {
+                    throw new IOException("Not a parse cache entry for this version");
+                }
+                final int bodyLength = in.readInt();
+
+                final int count = in.readInt();
+                if (count < 0 || count > entrySize) {
+                    throw new IOException("Invalid front matter size " + count);
+                }
+                final Map<String, List<String>> frontMatter = new HashMap<>();
+                for (int i = 0; i < count; i++) {
+                    final String key = readString(in, entrySize);
+                    final int valueCount = in.readInt();
+                    if (valueCount < 0 || valueCount > entrySize) {
+                        throw new IOException("Invalid front matter size " + valueCount);
+                    }
+                    final List<String> values = new ArrayList<>(valueCount);
+                    for (int j = 0; j < valueCount; j++) {
+                        values.add(readString(in, entrySize));
+                    }
+                    frontMatter.put(key, values);
+                }
+
+                final long checksum = crc.getValue();
+                if (in.readLong() != checksum) {
+                    throw new IOException("Header checksum does not match");
+                }
+
+                // the body (and its checksum) make up the rest of the entry, and is only read when it is needed
+                final long bodyOffset = entrySize - Long.BYTES - bodyLength;
+                if (bodyLength < 0 || bodyOffset < 0) {
+                    throw new IOException("Invalid body size " + bodyLength);
+                }
+                return new CachedFile(frontMatter, type, entry, bodyOffset, bodyLength, source);
+            }
+        } catch (IOException | RuntimeException e) {
+            discard(entry, e);
+            return null;
+        }
+    }
+
+    private void store(final Path entry, final Type type, final Map<String, List<String>> frontMatter,
+                       final String body) {
+        try {
+            Files.createDirectories(directory);
+            final Path tempFile = FileUtils.createTempSibling(entry);
+            try {
+                final byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+                final CRC32 crc = new CRC32();
+                try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(tempFile, StandardOpenOption.TRUNCATE_EXISTING,
+                                StandardOpenOption.WRITE)), crc))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeByte(type.ordinal());
+                    out.writeInt(bodyBytes.length);
+                    out.writeInt(frontMatter.size());
+                    for (Map.Entry<String, List<String>> e : frontMatter.entrySet()) {
+                        writeString(out, e.getKey());
+                        out.writeInt(e.getValue().size());
+                        for (String value : e.getValue()) {
+                            writeString(out, value);
+                        }
+                    }
+                    out.writeLong(crc.getValue());
+
+                    crc.reset();
+                    out.write(bodyBytes);
+                    out.writeLong(crc.getValue());
+                }
+                FileUtils.moveAtomically(tempFile, entry);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            // the file is simply parsed again next time
+            System.err.println("Could not write parse cache entry " + entry + ": " + e.getMessage());
+        }
+    }
+
+    // strings are written as their length in UTF-8 bytes and the bytes, as writeUTF() is limited to 64KB
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in, final long entrySize) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > entrySize) {
+            throw new IOException("Invalid string size " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * An input file read from the cache. The body is read from the entry when it is first asked for, and if it turns
+     * out to be corrupt, the source file is parsed instead.
+     */
+    private final class CachedFile implements InputFile {
+        private final Map<String, List<String>> frontMatter;
+        private final Type type;
+        private final Path entry;
+        private final long bodyOffset;
+        private final int bodyLength;
+        private final Path source;
+
+        private volatile String content;
+
+        private CachedFile(Map<String, List<String>> frontMatter, Type type, Path entry, long bodyOffset,
+                           int bodyLength, Path source) {
+            this.frontMatter = frontMatter;
+            this.type = type;
+            this.entry = entry;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+            this.source = source;
+        }
+
+        @Override
+        public String getBody() {
+            String body = content;
+            if (body == null) {
+                synchronized (this) {
+                    body = content;
+                    if (body == null) {
+                        content = body = readEntry();
+                    }
+                }
+            }
+            return body;
+        }
+
+        @Override
+        public String readBody() {
+            final String body = content;
+            return body != null ? body : readEntry();
+        }
+
+        // the body is checked against its checksum once it has all been read, as it can not be checked up front without
+        // reading all of it. If it does not match, reading fails (and the entry is discarded), as some of the body has
+        // already been read by then
+        @Override
+        public Reader openBody() throws IOException {
+            final String body = content;
+            if (body != null) {
+                return new StringReader(body);
+            }
+            final CRC32 crc = new CRC32();
+            final InputStream in = new CheckedInputStream(
+                    SourceFiles.newInputStream(entry, bodyOffset, bodyLength), crc);
+            return new InputStreamReader(new FilterInputStream(in) {
+                private boolean checked;
+
+                @Override
+                public int read() throws IOException {
+                    return checkAtEnd(in.read());
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    return checkAtEnd(in.read(b, off, len));
+                }
+
+                private int checkAtEnd(final int read) throws IOException {
+                    if (read < 0 && !checked) {
+                        checked = true;
+                        if (readChecksum() != crc.getValue()) {
+                            final IOException e = new IOException("Body checksum does not match");
+                            discard(entry, e);
+                            throw e;
+                        }
+                    }
+                    return read;
+                }
+            }, StandardCharsets.UTF_8);
+        }
+
+        private long readChecksum() throws IOException {
+            try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+                final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, bodyOffset + bodyLength + buffer.position()) < 0) {
+                        throw new IOException("Entry is truncated");
+                    }
+                }
+                return buffer.getLong(0);
+            }
+        }
+
+        private String readEntry() {
+            try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+                final ByteBuffer buffer = ByteBuffer.allocate(bodyLength + Long.BYTES);
+                channel.position(bodyOffset);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading until the buffer is full, or the entry ends
+                }
+                if (buffer.hasRemaining()) {
+                    throw new IOException("Entry is truncated");
+                }
+
+                final CRC32 crc = new CRC32();
+                crc.update(buffer.array(), 0, bodyLength);
+                if (buffer.getLong(bodyLength) != crc.getValue()) {
+                    throw new IOException("Body checksum does not match");
+                }
+                return new String(buffer.array(), 0, bodyLength, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                discard(entry, e);
+                return InputFile.fromPath(source).readBody();
+            }
+        }
+
+        @Override
+        public List<String> getFrontMatterList(String key) {
+            return frontMatter.get(type == Type.XML ? XmlFile.frontMatterKey(key) : key);
+        }
+
+        @Override
+        public boolean hasFrontMatter() {
+            return !frontMatter.isEmpty();
+        }
+    }
+
+    /**
+     * A parsed input file, which is added to the cache once its body has been rendered.
+     */
+    private final class StoringFile implements InputFile {
+        private final InputFile file;
+        private final Path entry;
+        private final Type type;
+
+        private volatile boolean stored;
+
+        private StoringFile(InputFile file, Path entry, Type type) {
+            this.file = file;
+            this.entry = entry;
+            this.type = type;
+        }
+
+        @Override
+        public String getBody() {
+            return stored(file.getBody());
+        }
+
+        @Override
+        public String readBody() {
+            return stored(file.readBody());
+        }
+
+        // the body is rendered and stored, as it can only be stored as a whole
+        @Override
+        public Reader openBody() {
+            return new StringReader(readBody());
+        }
+
+        private String stored(final String body) {
+            if (!stored) {
+                synchronized (this) {
+                    if (!stored) {
+                        stored = true;
+                        store(entry, type, frontMatterOf(file), body);
+                    }
+                }
+            }
+            return body;
+        }
+
+        private Map<String, List<String>> frontMatterOf(final InputFile file) {
+            if (file instanceof MarkdownFile) {
+                return ((MarkdownFile) file).getFrontMatter();
+            } else if (file instanceof HtmlFile) {
+                return ((HtmlFile) file).getFrontMatter();
+            } else {
+                return ((XmlFile) file).getFrontMatter();
+            }
+        }
+
+        @Override
+        public List<String> getFrontMatterList(String key) {
+            return file.getFrontMatterList(key);
+        }
+
+        @Override
+        public boolean hasFrontMatter() {
+            return file.hasFrontMatter();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package net.jonathangiles.tools.sitebuilder.models.input;
+
+import net.jonathangiles.tools.sitebuilder.util.Hashing;
+import net.jonathangiles.tools.sitebuilder.util.SourceFiles;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * A WordPress export (WXR) file, which holds every post and page of a WordPress site as an &lt;item&gt; in a single RSS
+ * document. The file is read one item at a time, so that however large the export is, only the item being read is held
+ * in memory by the reader. Each post and page becomes an {@link Item}, with the title, date, slug, status, categories
+ * and tags of the item as its front matter, and its content as its body. Other items, such as attachments and menu
+ * items, are skipped. The bodies of items may be written to a {@link BodySpill} as they are read, rather than being
+ * held by the items, so that what is read from the export does not stay in memory either.
+ */
+public final class WxrFile {
+    private static final String CONTENT_NAMESPACE = "http://purl.org/rss/1.0/modules/content/";
+    private static final String WORDPRESS_NAMESPACE_PREFIX = "http://wordpress.org/export/";
+
+    private WxrFile() { }
+
+    /**
+     * Returns whether the given XML file is a WordPress export, rather than a single post.
+     */
+    public static boolean isWxr(final Path file) throws IOException {
+        return XmlInput.read(file, xml -> xml.getLocalName().equals("rss"));
+    }
+
+    /**
+     * Reads the posts and pages in the given export, passing each one to the consumer as soon as it has been read. If
+     * a spill is given, the body of each item is written to it, and read back from it whenever it is needed, rather than
+     * being held by the item.
+     */
+    public static void readItems(final Path file, final BodySpill spill, final Consumer<Item> consumer)
+            throws IOException {
+        XmlInput.read(file, xml -> {
+            while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                if (!xml.getLocalName().equals("channel")) {
+                    XmlInput.skipElement(xml);
+                    continue;
+                }
+                while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    if (xml.getLocalName().equals("item")) {
+                        final Item item = readItem(xml, spill);
+                        if (item != null) {
+                            consumer.accept(item);
+                        }
+                    } else {
+                        XmlInput.skipElement(xml);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    // reads the item the reader is on, returning null if it is not a post or page
+    private static Item readItem(final XMLStreamReader xml, final BodySpill spill) throws XMLStreamException {
+        final Map<String, List<String>> frontMatter = new HashMap<>();
+        String body = "";
+        String type = null;
+        String id = null;
+
+        while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            final String name = xml.getLocalName();
+            final String namespace = xml.getNamespaceURI();
+            final boolean wordpress = namespace != null && namespace.startsWith(WORDPRESS_NAMESPACE_PREFIX);
+
+            if (name.equals("title") && isEmpty(namespace)) {
+                put(frontMatter, "title", xml.getElementText());
+            } else if (name.equals("encoded") && CONTENT_NAMESPACE.equals(namespace)) {
+                body = xml.getElementText();
+            } else if (name.equals("category") && isEmpty(namespace)) {
+                final String domain = xml.getAttributeValue(null, "domain");
+                final String value = xml.getElementText().trim();
+                if ("category".equals(domain)) {
+                    add(frontMatter, "categories", value);
+                } else if ("post_tag".equals(domain)) {
+                    add(frontMatter, "tags", value);
+                }
+            } else if (wordpress && name.equals("post_date")) {
+                // e.g. '2019-05-06 10:00:00', which is '0000-00-00 00:00:00' for some drafts
+                final String date = xml.getElementText().trim();
+                if (date.length() >= 10 && !date.startsWith("0000")) {
+                    put(frontMatter, "date", date.substring(0, 10));
+                }
+            } else if (wordpress && name.equals("post_name")) {
+                put(frontMatter, "slug", xml.getElementText().trim());
+            } else if (wordpress && name.equals("post_id")) {
+                id = xml.getElementText().trim();
+            } else if (wordpress && name.equals("status")) {
+                // everything that is not published (such as pending, private and scheduled posts) is a draft
+                put(frontMatter, "status", xml.getElementText().trim().equals("publish") ? "publish" : "draft");
+            } else if (wordpress && name.equals("post_type")) {
+                type = xml.getElementText().trim();
+            } else {
+                XmlInput.skipElement(xml);
+            }
+        }
+
+        if (!"post".equals(type) && !"page".equals(type)) {
+            return null;
+        }
+        if (!frontMatter.containsKey("slug") && id != null) {
+            // drafts that were never saved with a title have no slug
+            put(frontMatter, "slug", type + "-" + id);
+        }
+        if (type.equals("page")) {
+            // as with markdown pages, pages are given the 'page' template, so that they look as expected
+            put(frontMatter, "template", "page");
+        }
+
+        final byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        final String hash = hash(frontMatter, bodyBytes);
+        if (spill == null) {
+            return new Item(frontMatter, body, null, 0, bodyBytes.length, hash, type);
+        }
+        try {
+            return new Item(frontMatter, null, spill, spill.append(bodyBytes), bodyBytes.length, hash, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the hash of everything an item is made of, which changes whenever the item does, whatever else in the export does
+    private static String hash(final Map<String, List<String>> frontMatter, final byte[] body) {
+        final MessageDigest digest = Hashing.newDigest();
+        for (String key : new TreeSet<>(frontMatter.keySet())) {
+            final List<String> values = frontMatter.get(key);
+            Hashing.update(digest, key);
+            Hashing.update(digest, String.valueOf(values.size()));
+            for (String value : values) {
+                Hashing.update(digest, value);
+            }
+        }
+        digest.update(body);
+        return Hashing.toHex(digest.digest());
+    }
+
+    private static boolean isEmpty(final String namespace) {
+        return namespace == null || namespace.isEmpty();
+    }
+
+    private static void put(final Map<String, List<String>> frontMatter, final String key, final String value) {
+        if (!value.isEmpty()) {
+            frontMatter.put(key, List.of(value));
+        }
+    }
+
+    private static void add(final Map<String, List<String>> frontMatter, final String key, final String value) {
+        if (!value.isEmpty()) {
+            frontMatter.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }
+    }
+
+    /**
+     * A post or page read from a WordPress export. Unlike files that hold a single page, the body of an item is read
+     * along with its front matter, as reading it again later would mean reading through the export again. The body is
+     * either held by the item, or written to a spill and read back from it each time it is needed.
+     */
+    public static final class Item implements InputFile {
+        private final Map<String, List<String>> frontMatter;
+        private final String body;
+        private final BodySpill spill;
+        private final long bodyOffset;
+        private final int bodySize;
+        private final String hash;
+        private final String type;
+
+        private Item(Map<String, List<String>> frontMatter, String body, BodySpill spill, long bodyOffset,
+                     int bodySize, String hash, String type) {
+            this.frontMatter = frontMatter;
+            this.body = body;
+            this.spill = spill;
+            this.bodyOffset = bodyOffset;
+            this.bodySize = bodySize;
+            this.hash = hash;
+            this.type = type;
+        }
+
+        /**
+         * Returns whether this item is a page, rather than a post.
+         */
+        public boolean isPage() {
+            return type.equals("page");
+        }
+
+        /**
+         * Returns the hash of the front matter and body of this item, which identifies it without reference to the rest
+         * of the export.
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * Returns the size of the body of this item, as UTF-8.
+         */
+        public int getBodySize() {
+            return bodySize;
+        }
+
+        @Override
+        public String getBody() {
+            return body != null ? body : spill.read(bodyOffset, bodySize);
+        }
+
+        @Override
+        public Reader openBody() throws IOException {
+            return body != null ? new StringReader(body) : spill.open(bodyOffset, bodySize);
+        }
+
+        @Override
+        public List<String> getFrontMatterList(String key) {
+            return frontMatter.get(key);
+        }
+
+        @Override
+        public boolean hasFrontMatter() {
+            return !frontMatter.isEmpty();
+        }
+    }
+
+    /**
+     * A temporary file that the bodies of items are written to as an export is read, and that each body is read back
+     * from when it is needed. Bodies may be read from many threads at once. The file is deleted when the spill is
+     * closed, or failing that, when the JVM exits.
+     */
+    public static final class BodySpill implements Closeable {
+        private final Path file;
+        private final FileChannel channel;
+        private long size;
+
+        public BodySpill() throws IOException {
+            this.file = Files.createTempFile("sitebuilder-wxr-", ".spill");
+            file.toFile().deleteOnExit();
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        // writes the given body to the end of the file, returning where it starts
+        private synchronized long append(final byte[] bytes) throws IOException {
+            final long offset = size;
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                size += channel.write(buffer, size);
+            }
+            return offset;
+        }
+
+        private String read(final long offset, final int length) {
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) {
+                        throw new EOFException("Spill file " + file + " is truncated");
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new String(buffer.array(), StandardCharsets.UTF_8);
+        }
+
+        private Reader open(final long offset, final int length) throws IOException {
+            return new InputStreamReader(SourceFiles.newInputStream(file, offset, length), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
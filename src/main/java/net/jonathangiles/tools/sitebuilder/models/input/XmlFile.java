@@ -1,11 +1,13 @@
 package net.jonathangiles.tools.sitebuilder.models.input;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
-import net.jonathangiles.tools.sitebuilder.util.FileUtils;
-
-import java.io.File;
-import java.util.*;
+import javax.xml.stream.XMLStreamConstants;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Old blog posts, when I exported them from WordPress, took the form of XML files. They aren't the prettiest, and
@@ -14,51 +16,82 @@ import java.util.*;
 public class XmlFile implements InputFile {
     private final Map<String, List<String>> frontMatter;
 
-    private final String body;
+    private final Path file;
+
+    // the body, which is only kept once it is asked for
+    private volatile String content;
 
-    private XmlFile(Map<String, List<String>> frontMatter, String body) {
+    private XmlFile(Map<String, List<String>> frontMatter, Path file) {
         this.frontMatter = frontMatter;
-        this.body = body;
+        this.file = file;
     }
 
-    static XmlFile fromFile(File xmlFile) {
-        // Use Jackson to read all elements of the XML file, under the <post> root element. All values are considered
-        // front matter, except for the <content> element, which is the HTML content of the blog post.
+    static XmlFile fromPath(Path xmlFile) {
+        // the body is skipped over, so that files which turn out not to be needed do not hold on to it
         final Map<String, List<String>> frontMatter = new HashMap<>();
-        String xmlContent = FileUtils.readFile(xmlFile.toPath());
-        XmlMapper mapper = new XmlMapper();
-        String body = "";
+        read(xmlFile, frontMatter);
+        return new XmlFile(frontMatter, xmlFile);
+    }
 
+    // Reads the elements of the XML file under the <post> root element, one at a time. All values are considered front
+    // matter (and are added to the given map, if it is not null), except for the <Content> element, which is the HTML
+    // content of the blog post, and is returned. If the map is null, reading stops as soon as the content is found.
+    private static String read(Path xmlFile, Map<String, List<String>> frontMatter) {
         try {
-            Map map = (LinkedHashMap)mapper.readValue(xmlContent, Object.class);
-            for (Object key : map.keySet()) {
-                if (key.equals("Content")) {
-                    body = (String)map.get(key);
-                } else {
-                    frontMatter.put((String)key, List.of((String)map.get(key)));
+            return XmlInput.read(xmlFile, xml -> {
+                while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    final String key = xml.getLocalName();
+                    if (key.equals("Content")) {
+                        if (frontMatter == null) {
+                            return xml.getElementText();
+                        }
+                        XmlInput.skipElement(xml);
+                    } else if (frontMatter != null) {
+                        frontMatter.computeIfAbsent(key, k -> new ArrayList<>(1)).add(xml.getElementText());
+                    } else {
+                        XmlInput.skipElement(xml);
+                    }
                 }
-            }
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
+                return "";
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-
-        return new XmlFile(frontMatter, body);
     }
 
     @Override public String getBody() {
+        String body = content;
+        if (body == null) {
+            synchronized (this) {
+                body = content;
+                if (body == null) {
+                    content = body = read(file, null);
+                }
+            }
+        }
         return body;
     }
 
+    @Override
+    public String readBody() {
+        final String body = content;
+        return body != null ? body : read(file, null);
+    }
+
+    // all front matter, as it is stored in the parse cache
+    Map<String, List<String>> getFrontMatter() {
+        return frontMatter;
+    }
+
     @Override
     public List<String> getFrontMatterList(String key) {
-        return frontMatter.getOrDefault(key, null);
+        return frontMatter.getOrDefault(frontMatterKey(key), null);
     }
 
-    @Override public Optional<String> getFrontMatterValue(String key) {
-        // annoyingly, the XML front matter keys have their first letter upper-cased, so we need to change the
-        // key to match what the files have in them
-        key = key.substring(0, 1).toUpperCase() + key.substring(1);
-        return InputFile.super.getFrontMatterValue(key);
+    // annoyingly, the XML front matter keys have their first letter upper-cased, so we need to change the key to match
+    // what the files have in them
+    static String frontMatterKey(final String key) {
+        return key.substring(0, 1).toUpperCase() + key.substring(1);
     }
 
     @Override
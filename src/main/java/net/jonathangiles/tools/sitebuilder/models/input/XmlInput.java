@@ -0,0 +1,63 @@
+package net.jonathangiles.tools.sitebuilder.models.input;
+
+import net.jonathangiles.tools.sitebuilder.util.SourceFiles;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Shared helpers for reading XML input files token by token with a StAX reader, so that no file is held in memory as a
+ * whole. The factory is configured once and shared, as creating readers from it is thread safe.
+ */
+final class XmlInput {
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private XmlInput() { }
+
+    private static XMLInputFactory createFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newFactory();
+        // input files never need a DTD, and must not be able to pull in other files through external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    interface XmlReaderBody<T> {
+        T read(XMLStreamReader xml) throws XMLStreamException;
+    }
+
+    // reads the given file with a new stream reader, which is positioned on the root element before it is handed over
+    static <T> T read(final Path file, final XmlReaderBody<T> body) throws IOException {
+        try (InputStream in = SourceFiles.newInputStream(file)) {
+            final XMLStreamReader xml = FACTORY.createXMLStreamReader(in);
+            try {
+                xml.nextTag();
+                return body.read(xml);
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not read " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    // skips the element the reader is on, along with everything in it, leaving the reader on its end tag
+    static void skipElement(final XMLStreamReader xml) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            final int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
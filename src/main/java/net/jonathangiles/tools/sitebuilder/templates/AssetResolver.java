@@ -0,0 +1,216 @@
+package net.jonathangiles.tools.sitebuilder.templates;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves {@code ${asset path}} directives, where the path is relative to www/static, to the URL the asset is
+ * published at - its fingerprinted path, if assets are fingerprinted, or otherwise its plain path. Directives can be
+ * used in templates, and in the content of pages and posts.
+ */
+public final class AssetResolver {
+    public static final String DIRECTIVE = "asset ";
+
+    private static final String DIRECTIVE_START = "${" + DIRECTIVE;
+
+    private final Map<String, String> fingerprintedPaths;
+
+    /**
+     * Creates a resolver that maps the given asset paths to their fingerprinted paths. If the map is null, assets are
+     * not fingerprinted, and every path resolves to itself.
+     */
+    public AssetResolver(Map<String, String> fingerprintedPaths) {
+        this.fingerprintedPaths = fingerprintedPaths == null ? null : Collections.unmodifiableMap(fingerprintedPaths);
+    }
+
+    /**
+     * Returns the fingerprinted path of the given asset, or null if it is unknown or assets are not fingerprinted.
+     */
+    public String getFingerprintedPath(final String path) {
+        return fingerprintedPaths == null ? null : fingerprintedPaths.get(path);
+    }
+
+    /**
+     * Returns the paths of all fingerprinted assets.
+     */
+    public Set<String> getPaths() {
+        return fingerprintedPaths == null ? Collections.emptySet() : fingerprintedPaths.keySet();
+    }
+
+    /**
+     * Returns whether the given template field is an asset directive.
+     */
+    public static boolean isDirective(final String field) {
+        return field.startsWith(DIRECTIVE);
+    }
+
+    /**
+     * Returns the asset path named by the given asset directive field.
+     */
+    public static String getPath(final String field) {
+        String path = field.substring(DIRECTIVE.length()).trim();
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    /**
+     * Returns the URL of the asset named by the given directive field, failing if the asset does not exist.
+     */
+    public String resolve(final String field) {
+        final String path = getPath(field);
+        if (fingerprintedPaths == null) {
+            return "/" + path;
+        }
+        final String fingerprinted = fingerprintedPaths.get(path);
+        if (fingerprinted == null) {
+            throw new IllegalStateException("Unknown asset '" + path + "'");
+        }
+        return "/" + fingerprinted;
+    }
+
+    /**
+     * Resolves all asset directives in the given html, leaving everything else (including other directives) as it is.
+     */
+    public String rewrite(final String html) {
+        if (html == null) {
+            return null;
+        }
+        int start = nextDirective(html, 0);
+        if (start < 0) {
+            return html;
+        }
+        final StringBuilder sb = new StringBuilder(html.length());
+        int from = 0;
+        while (start >= 0) {
+            final int end = html.indexOf('}', start);
+            sb.append(html, from, start).append(resolve(html.substring(start + 2, end)));
+            from = end + 1;
+            start = nextDirective(html, from);
+        }
+        return sb.append(html, from, html.length()).toString();
+    }
+
+    /**
+     * Returns a writer that resolves the asset directives in the html written to it, as {@link #rewrite(String)} does,
+     * and writes the result to the given writer. Only a directive that is part way through being written is held back,
+     * so html of any size can be passed through it. Closing the writer writes out anything held back (which can not be a
+     * complete directive), and closes the given writer.
+     */
+    public Writer rewriting(final Writer out) {
+        return new RewritingWriter(out);
+    }
+
+    /**
+     * Returns whether the given html contains an asset directive for the given asset path.
+     */
+    public static boolean references(final String html, final String path) {
+        return references(html).contains(path);
+    }
+
+    /**
+     * Returns the paths of all the assets that the given html has directives for.
+     */
+    public static Set<String> references(final String html) {
+        if (html == null) {
+            return Collections.emptySet();
+        }
+        Set<String> paths = Collections.emptySet();
+        for (int start = nextDirective(html, 0); start >= 0; ) {
+            final int end = html.indexOf('}', start);
+            if (paths.isEmpty()) {
+                paths = new HashSet<>();
+            }
+            paths.add(getPath(html.substring(start + 2, end)));
+            start = nextDirective(html, end + 1);
+        }
+        return paths;
+    }
+
+    // returns the index of the next asset directive in the given html at or after the given index, or -1 if there is
+    // none. As in templates, a '${' only starts a slot if no other '${' comes before the '}' that ends it
+    private static int nextDirective(final String html, final int from) {
+        int start = html.indexOf(DIRECTIVE_START, from);
+        while (start >= 0) {
+            final int end = html.indexOf('}', start + DIRECTIVE_START.length());
+            if (end < 0) {
+                return -1;
+            }
+            if (html.lastIndexOf("${", end) == start) {
+                return start;
+            }
+            start = html.indexOf(DIRECTIVE_START, start + 2);
+        }
+        return -1;
+    }
+
+    private final class RewritingWriter extends Writer {
+        private final Writer out;
+
+        // the text from a '$' that may be the start of a directive, up to the last character written
+        private final StringBuilder pending = new StringBuilder();
+
+        private RewritingWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) throws IOException {
+            final int end = off + len;
+            int i = off;
+            while (i < end) {
+                if (pending.length() == 0) {
+                    // everything up to the next '$' can not be part of a directive, so it is passed straight on
+                    int dollar = i;
+                    while (dollar < end && cbuf[dollar] != '$') {
+                        dollar++;
+                    }
+                    out.write(cbuf, i, dollar - i);
+                    i = dollar;
+                    if (i == end) {
+                        break;
+                    }
+                }
+                process(cbuf[i++]);
+            }
+        }
+
+        private void process(final char c) throws IOException {
+            pending.append(c);
+            final int length = pending.length();
+            if (length <= DIRECTIVE_START.length()) {
+                if (c != DIRECTIVE_START.charAt(length - 1)) {
+                    // not a directive after all. The rest of the text is looked at again, as it may start one
+                    final String text = pending.toString();
+                    pending.setLength(0);
+                    out.write(text.charAt(0));
+                    for (int i = 1; i < text.length(); i++) {
+                        process(text.charAt(i));
+                    }
+                }
+            } else if (c == '}') {
+                final String field = pending.substring(2, length - 1);
+                pending.setLength(0);
+                out.write(resolve(field));
+            } else if (c == '{' && pending.charAt(length - 2) == '$') {
+                // another slot starts before this one ends, so only the other one may be a directive, as in templates
+                out.append(pending, 0, length - 2);
+                pending.delete(0, length - 2);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.append(pending);
+            pending.setLength(0);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package net.jonathangiles.tools.sitebuilder.templates;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A writer that minifies the HTML written to it as it passes through, in a single pass and without building a DOM.
+ * Runs of whitespace between tags and in text are collapsed to a single space (or a single newline, if the run
+ * contained one), whitespace inside tags is collapsed, comments (other than conditional comments) are removed, and
+ * type attributes that only repeat the default are dropped from script, style and link tags. The content of pre,
+ * textarea, script and style elements is passed through untouched.
+ *
+ * <p>{@link #finish()} must be called once everything has been written, to write out anything still held back.</p>
+ */
+public class HtmlMinifier extends Writer {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    // elements whose content is written exactly as it is
+    private static final Set<String> RAW_ELEMENTS = Set.of("pre", "textarea", "script", "style");
+
+    private static final Pattern SCRIPT_TYPE =
+            Pattern.compile("\\s(type=([\"']?)text/javascript\\2|language=([\"']?)javascript\\3)(?=[\\s/]|$)",
+                    Pattern.CASE_INSENSITIVE);
+    private static final Pattern CSS_TYPE =
+            Pattern.compile("\\stype=([\"']?)text/css\\1(?=[\\s/]|$)", Pattern.CASE_INSENSITIVE);
+
+    private enum State { TEXT, TAG_OPEN, TAG, COMMENT, RAW }
+
+    private final Writer out;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int count;
+
+    private State state = State.TEXT;
+
+    // whitespace that has been collapsed, but not yet written: 0, ' ' or '\n'
+    private char pendingWhitespace;
+
+    // leading whitespace is dropped, so this records whether anything has been written yet
+    private boolean started;
+
+    // the tag (without the '<' and '>') or comment being read
+    private final StringBuilder tag = new StringBuilder();
+    private char quote;
+
+    // the raw element whose content is being passed through, and how much of its end tag has been seen so far
+    private String rawEndTag;
+    private final StringBuilder rawHeld = new StringBuilder();
+
+    private long bytesIn;
+    private long bytesOut;
+    private boolean finished;
+
+    public HtmlMinifier(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            process(cbuf[i]);
+        }
+    }
+
+    @Override
+    public void write(final String str, final int off, final int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            process(str.charAt(i));
+        }
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        process((char) c);
+    }
+
+    /**
+     * Returns the size, in UTF-8 bytes, of the HTML written to this minifier.
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * Returns the size, in UTF-8 bytes, of the minified HTML.
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    private void process(final char c) throws IOException {
+        bytesIn += utf8Length(c);
+
+        switch (state) {
+            case TEXT:
+                if (isWhitespace(c)) {
+                    if (started) {
+                        pendingWhitespace = c == '\n' || pendingWhitespace == '\n' ? '\n' : ' ';
+                    }
+                } else if (c == '<') {
+                    state = State.TAG_OPEN;
+                } else {
+                    emitPendingWhitespace();
+                    emit(c);
+                }
+                break;
+
+            case TAG_OPEN:
+                if (isAsciiLetter(c) || c == '/' || c == '!' || c == '?') {
+                    tag.setLength(0);
+                    tag.append(c);
+                    quote = 0;
+                    state = State.TAG;
+                } else {
+                    // a '<' in text, such as 'a < b'
+                    emitPendingWhitespace();
+                    emit('<');
+                    state = State.TEXT;
+                    bytesIn -= utf8Length(c);
+                    process(c);
+                }
+                break;
+
+            case TAG:
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                    tag.append(c);
+                } else if (c == '>') {
+                    endTag();
+                } else {
+                    if (c == '"' || c == '\'') {
+                        quote = c;
+                    }
+                    tag.append(c);
+                    if (tag.length() == 3 && tag.charAt(0) == '!' && tag.charAt(1) == '-' && tag.charAt(2) == '-') {
+                        tag.setLength(0);
+                        state = State.COMMENT;
+                    }
+                }
+                break;
+
+            case COMMENT:
+                tag.append(c);
+                final int length = tag.length();
+                if (c == '>' && length >= 3 && tag.charAt(length - 2) == '-' && tag.charAt(length - 3) == '-') {
+                    // conditional comments are kept, as they are used by some (old) browsers
+                    if (tag.indexOf("[if") == 0 || tag.indexOf("<![endif]") == 0) {
+                        emitPendingWhitespace();
+                        emit("<!--");
+                        emit(tag);
+                    }
+                    tag.setLength(0);
+                    state = State.TEXT;
+                }
+                break;
+
+            case RAW:
+                final int held = rawHeld.length();
+                if (Character.toLowerCase(c) == rawEndTag.charAt(held)) {
+                    rawHeld.append(c);
+                    if (rawHeld.length() == rawEndTag.length()) {
+                        // the end tag of the raw element, which is finished off as a normal tag
+                        tag.setLength(0);
+                        tag.append(rawHeld, 1, rawHeld.length());
+                        rawHeld.setLength(0);
+                        quote = 0;
+                        state = State.TAG;
+                    }
+                } else {
+                    emit(rawHeld);
+                    rawHeld.setLength(0);
+                    if (c == '<') {
+                        rawHeld.append(c);
+                    } else {
+                        emit(c);
+                    }
+                }
+                break;
+
+            default:
+                throw new IllegalStateException("Unknown state " + state);
+        }
+    }
+
+    private void endTag() throws IOException {
+        state = State.TEXT;
+        emitPendingWhitespace();
+
+        final char first = tag.charAt(0);
+        if (first == '!' || first == '?') {
+            // doctype or processing instruction
+            emit('<');
+            emit(tag);
+            emit('>');
+            return;
+        }
+
+        String minified = collapseWhitespace(tag);
+        final boolean endTag = first == '/';
+        final String name = tagName(minified, endTag ? 1 : 0);
+        if (!endTag) {
+            if (name.equals("script")) {
+                minified = SCRIPT_TYPE.matcher(minified).replaceAll("");
+            } else if (name.equals("style") || name.equals("link")) {
+                minified = CSS_TYPE.matcher(minified).replaceAll("");
+            }
+        }
+
+        emit('<');
+        emit(minified);
+        emit('>');
+
+        if (!endTag && RAW_ELEMENTS.contains(name) && !minified.endsWith("/")) {
+            rawEndTag = "</" + name;
+            state = State.RAW;
+        }
+    }
+
+    // collapses whitespace outside of quoted attribute values, and removes it around '=' and before a closing '/'
+    private static String collapseWhitespace(final CharSequence tag) {
+        final StringBuilder sb = new StringBuilder(tag.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < tag.length(); i++) {
+            final char c = tag.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && sb.length() > 0 && c != '=' && sb.charAt(sb.length() - 1) != '='
+                        && !(c == '/' && i == tag.length() - 1)) {
+                    sb.append(' ');
+                }
+                space = false;
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String tagName(final String tag, final int start) {
+        int end = start;
+        while (end < tag.length() && !isWhitespace(tag.charAt(end)) && tag.charAt(end) != '/') {
+            end++;
+        }
+        return tag.substring(start, end).toLowerCase();
+    }
+
+    private void emitPendingWhitespace() throws IOException {
+        if (pendingWhitespace != 0) {
+            final char c = pendingWhitespace;
+            pendingWhitespace = 0;
+            emit(c);
+        }
+    }
+
+    private void emit(final CharSequence chars) throws IOException {
+        for (int i = 0; i < chars.length(); i++) {
+            emit(chars.charAt(i));
+        }
+    }
+
+    private void emit(final char c) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = c;
+        bytesOut += utf8Length(c);
+        started = true;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Writes out anything that is still held back, such as an unfinished tag, without closing the underlying writer.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+
+        switch (state) {
+            case TAG_OPEN:
+                emitPendingWhitespace();
+                emit('<');
+                break;
+            case TAG:
+                emit('<');
+                emit(tag);
+                break;
+            case COMMENT:
+                emit("<!--");
+                emit(tag);
+                break;
+            case RAW:
+                emit(rawHeld);
+                break;
+            default:
+                if (pendingWhitespace == '\n') {
+                    emitPendingWhitespace();
+                }
+                break;
+        }
+        flushBuffer();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+
+    private static boolean isAsciiLetter(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static int utf8Length(final char c) {
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800 || Character.isSurrogate(c)) {
+            // each half of a surrogate pair counts for half of the four bytes of the pair
+            return 2;
+        }
+        return 3;
+    }
+}
@@ -0,0 +1,160 @@
+package net.jonathangiles.tools.sitebuilder.templates;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The {@code ${include name}} directives between templates, treated as a dependency graph. Each template is
+ * flattened exactly once, in topological order, so that nested includes resolve regardless of the order the
+ * templates were loaded in. Includes of unknown templates and include cycles are reported as errors.
+ */
+public final class IncludeGraph {
+    private static final String INCLUDE_START = "${include ";
+    private static final char INCLUDE_END = '}';
+
+    // template name -> names of the templates it directly includes
+    private final Map<String, Set<String>> includes;
+
+    // template name -> template content with all includes (including nested ones) substituted
+    private final Map<String, String> resolved;
+
+    private IncludeGraph(Map<String, Set<String>> includes, Map<String, String> resolved) {
+        this.includes = includes;
+        this.resolved = resolved;
+    }
+
+    public static IncludeGraph resolve(final Map<String, String> templates) {
+        final Map<String, Set<String>> includes = new HashMap<>();
+        templates.forEach((name, html) -> {
+            final Set<String> directIncludes = findIncludes(html);
+            for (String include : directIncludes) {
+                if (!templates.containsKey(include)) {
+                    throw new IllegalStateException("Template '" + name + "' includes unknown template '" + include + "'");
+                }
+            }
+            includes.put(name, directIncludes);
+        });
+
+        final Map<String, String> resolved = new HashMap<>();
+        final Set<String> visiting = new LinkedHashSet<>();
+        for (String name : templates.keySet()) {
+            flatten(name, templates, includes, resolved, visiting);
+        }
+
+        return new IncludeGraph(includes, resolved);
+    }
+
+    private static void flatten(final String name,
+                                final Map<String, String> templates,
+                                final Map<String, Set<String>> includes,
+                                final Map<String, String> resolved,
+                                final Set<String> visiting) {
+        if (resolved.containsKey(name)) {
+            return;
+        }
+        if (!visiting.add(name)) {
+            final List<String> cycle = new ArrayList<>(visiting);
+            cycle.subList(0, cycle.indexOf(name)).clear();
+            cycle.add(name);
+            throw new IllegalStateException("Include cycle between templates: " + String.join(" -> ", cycle));
+        }
+
+        for (String include : includes.get(name)) {
+            flatten(include, templates, includes, resolved, visiting);
+        }
+        resolved.put(name, substitute(templates.get(name), resolved::get));
+
+        visiting.remove(name);
+    }
+
+    /**
+     * Returns the names of the templates that the given template includes directly.
+     */
+    public Set<String> getIncludes(final String name) {
+        return Collections.unmodifiableSet(includes.getOrDefault(name, Collections.emptySet()));
+    }
+
+    /**
+     * Returns the names of all templates that the given template includes, directly or through other templates.
+     */
+    public Set<String> getTransitiveIncludes(final String name) {
+        final Set<String> all = new LinkedHashSet<>();
+        collectIncludes(name, all);
+        return all;
+    }
+
+    private void collectIncludes(final String name, final Set<String> all) {
+        for (String include : includes.getOrDefault(name, Collections.emptySet())) {
+            if (all.add(include)) {
+                collectIncludes(include, all);
+            }
+        }
+    }
+
+    /**
+     * Returns the content of the given template with all of its includes substituted, or null if there is no such
+     * template.
+     */
+    public String getResolved(final String name) {
+        return resolved.get(name);
+    }
+
+    /**
+     * Substitutes the include directives that appear in the given html with the flattened templates they refer to.
+     * Only the directives actually present in the html are looked at, and the html is returned as-is if it has none.
+     */
+    public String processIncludes(final String html) {
+        return substitute(html, name -> {
+            final String template = resolved.get(name);
+            if (template == null) {
+                throw new IllegalStateException("Unknown template '" + name + "' in include directive");
+            }
+            return template;
+        });
+    }
+
+    private static String substitute(final String html, final Function<String, String> lookup) {
+        int start = html.indexOf(INCLUDE_START);
+        if (start < 0) {
+            return html;
+        }
+
+        final StringBuilder sb = new StringBuilder(html.length());
+        int pos = 0;
+        while (start >= 0) {
+            final int end = html.indexOf(INCLUDE_END, start);
+            if (end < 0) {
+                break;
+            }
+            sb.append(html, pos, start);
+            sb.append(lookup.apply(html.substring(start + INCLUDE_START.length(), end).trim()));
+            pos = end + 1;
+            start = html.indexOf(INCLUDE_START, pos);
+        }
+        sb.append(html, pos, html.length());
+        return sb.toString();
+    }
+
+    /**
+     * Returns the names of the templates included by the directives in the given html, in the order they appear.
+     */
+    public static Set<String> findIncludes(final String html) {
+        final Set<String> names = new LinkedHashSet<>();
+        int start = html.indexOf(INCLUDE_START);
+        while (start >= 0) {
+            final int end = html.indexOf(INCLUDE_END, start);
+            if (end < 0) {
+                break;
+            }
+            names.add(html.substring(start + INCLUDE_START.length(), end).trim());
+            start = html.indexOf(INCLUDE_START, end);
+        }
+        return names;
+    }
+}
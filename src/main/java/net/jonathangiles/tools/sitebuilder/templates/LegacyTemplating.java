@@ -0,0 +1,42 @@
+package net.jonathangiles.tools.sitebuilder.templates;
+
+import net.jonathangiles.tools.sitebuilder.models.Post;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The original templating approach, which runs a regex replacement over the whole page for each field. It is slower
+ * than {@link Template}, and is kept so that output (and performance) can be compared with it.
+ */
+public final class LegacyTemplating {
+    private LegacyTemplating() { }
+
+    public static String processIncludesDirectives(String html, final Map<String, String> templates) {
+        for (final Map.Entry<String, String> template : templates.entrySet()) {
+            html = fillTemplate(html, "include " + template.getKey(), template.getValue());
+        }
+
+        return html;
+    }
+
+    public static String fillTemplate(final String html, final String field, final String data) {
+        return fillTemplate(html, field, data, null);
+    }
+
+    public static String fillTemplate(final String html, final String field, String data, final Post post) {
+        try {
+            // we have to escape some characters in the data
+            data = data.replace("$", "\\$");
+
+            return html.replaceAll(Pattern.quote("${" + field + "}"), data);
+        } catch (IndexOutOfBoundsException e) {
+            if (post == null) {
+                throw new RuntimeException(e);
+            } else {
+                System.err.println("Could not do regex on field '" + field + "' on post '" + post.getTitle() + "' with data '" + data + "'");
+            }
+            return "";
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package net.jonathangiles.tools.sitebuilder.templates;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.function.Consumer;
+
+/**
+ * A writer that picks out the value of every href and src attribute in the HTML written to it, in a single pass and
+ * without building a DOM, passing the HTML on to another writer (if there is one) untouched. Attributes are only looked
+ * for in tags, so text, comments, and the content of script and style elements are ignored.
+ */
+public class LinkExtractor extends Writer {
+
+    private enum State { TEXT, TAG_OPEN, TAG, COMMENT, RAW }
+
+    private final Writer out;
+    private final Consumer<String> links;
+
+    private State state = State.TEXT;
+
+    // the tag (without the '<' and '>') or the end of the comment being read
+    private final StringBuilder tag = new StringBuilder();
+    private char quote;
+
+    // the end tag of the script or style element being skipped, and how much of it has been seen so far
+    private String rawEndTag;
+    private int rawMatched;
+
+    /**
+     * Creates an extractor that passes each link to the given consumer, and the HTML to the given writer, which may be
+     * null if the HTML is only being scanned.
+     */
+    public LinkExtractor(Writer out, Consumer<String> links) {
+        this.out = out;
+        this.links = links;
+    }
+
+    @Override
+    public void write(final char[] cbuf, final int off, final int len) throws IOException {
+        if (out != null) {
+            out.write(cbuf, off, len);
+        }
+        for (int i = off; i < off + len; i++) {
+            process(cbuf[i]);
+        }
+    }
+
+    @Override
+    public void write(final String str, final int off, final int len) throws IOException {
+        if (out != null) {
+            out.write(str, off, len);
+        }
+        for (int i = off; i < off + len; i++) {
+            process(str.charAt(i));
+        }
+    }
+
+    @Override
+    public void write(final int c) throws IOException {
+        if (out != null) {
+            out.write(c);
+        }
+        process((char) c);
+    }
+
+    private void process(final char c) {
+        switch (state) {
+            case TEXT:
+                if (c == '<') {
+                    state = State.TAG_OPEN;
+                }
+                break;
+
+            case TAG_OPEN:
+                if (isAsciiLetter(c) || c == '/' || c == '!' || c == '?') {
+                    tag.setLength(0);
+                    tag.append(c);
+                    quote = 0;
+                    state = State.TAG;
+                } else {
+                    // a '<' in text, such as 'a < b'
+                    state = State.TEXT;
+                    process(c);
+                }
+                break;
+
+            case TAG:
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                    tag.append(c);
+                } else if (c == '>') {
+                    state = State.TEXT;
+                    endTag();
+                } else {
+                    if (c == '"' || c == '\'') {
+                        quote = c;
+                    }
+                    tag.append(c);
+                    if (tag.length() == 3 && tag.charAt(0) == '!' && tag.charAt(1) == '-' && tag.charAt(2) == '-') {
+                        tag.setLength(0);
+                        state = State.COMMENT;
+                    }
+                }
+                break;
+
+            case COMMENT:
+                // only the last two characters are needed to find the end of the comment
+                if (c == '>' && tag.length() == 2 && tag.charAt(0) == '-' && tag.charAt(1) == '-') {
+                    state = State.TEXT;
+                } else {
+                    if (tag.length() == 2) {
+                        tag.deleteCharAt(0);
+                    }
+                    tag.append(c);
+                }
+                break;
+
+            case RAW:
+                if (Character.toLowerCase(c) == rawEndTag.charAt(rawMatched)) {
+                    if (++rawMatched == rawEndTag.length()) {
+                        // the end tag of the element, which is finished off as a normal tag
+                        tag.setLength(0);
+                        tag.append(rawEndTag, 1, rawEndTag.length());
+                        quote = 0;
+                        state = State.TAG;
+                    }
+                } else {
+                    rawMatched = c == '<' ? 1 : 0;
+                }
+                break;
+
+            default:
+                throw new IllegalStateException("Unknown state " + state);
+        }
+    }
+
+    private void endTag() {
+        final char first = tag.charAt(0);
+        if (first == '!' || first == '?' || first == '/') {
+            return;
+        }
+
+        int i = 0;
+        while (i < tag.length() && !isWhitespace(tag.charAt(i)) && tag.charAt(i) != '/') {
+            i++;
+        }
+        final String name = tag.substring(0, i).toLowerCase();
+        readAttributes(i);
+
+        if ((name.equals("script") || name.equals("style")) && tag.charAt(tag.length() - 1) != '/') {
+            rawEndTag = "</" + name;
+            rawMatched = 0;
+            state = State.RAW;
+        }
+    }
+
+    // reads the 'name', 'name=value', 'name="value"' and "name='value'" attributes in the tag, from the given index
+    private void readAttributes(int i) {
+        final int length = tag.length();
+        while (i < length) {
+            while (i < length && (isWhitespace(tag.charAt(i)) || tag.charAt(i) == '/')) {
+                i++;
+            }
+            final int nameStart = i;
+            while (i < length && !isWhitespace(tag.charAt(i)) && tag.charAt(i) != '=' && tag.charAt(i) != '/') {
+                i++;
+            }
+            final int nameEnd = i;
+            while (i < length && isWhitespace(tag.charAt(i))) {
+                i++;
+            }
+            if (i == length || tag.charAt(i) != '=') {
+                continue;
+            }
+            i++;
+            while (i < length && isWhitespace(tag.charAt(i))) {
+                i++;
+            }
+
+            final int valueStart;
+            final int valueEnd;
+            if (i < length && (tag.charAt(i) == '"' || tag.charAt(i) == '\'')) {
+                final char q = tag.charAt(i);
+                valueStart = ++i;
+                while (i < length && tag.charAt(i) != q) {
+                    i++;
+                }
+                valueEnd = i++;
+            } else {
+                valueStart = i;
+                while (i < length && !isWhitespace(tag.charAt(i))) {
+                    i++;
+                }
+                valueEnd = i;
+            }
+
+            if (isLinkAttribute(nameStart, nameEnd)) {
+                links.accept(decodeEntities(tag.substring(valueStart, valueEnd).trim()));
+            }
+        }
+    }
+
+    private boolean isLinkAttribute(final int start, final int end) {
+        final int length = end - start;
+        return (length == 4 && tag.substring(start, end).equalsIgnoreCase("href"))
+                || (length == 3 && tag.substring(start, end).equalsIgnoreCase("src"));
+    }
+
+    // links rarely hold entities other than '&amp;' (in query strings), so only the common ones are decoded
+    private static String decodeEntities(final String value) {
+        if (value.indexOf('&') < 0) {
+            return value;
+        }
+        return value.replace("&quot;", "\"").replace("&#39;", "'").replace("&lt;", "<").replace("&gt;", ">")
+                .replace("&amp;", "&");
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+
+    private static boolean isAsciiLetter(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
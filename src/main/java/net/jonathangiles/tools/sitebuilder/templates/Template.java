@@ -0,0 +1,117 @@
+package net.jonathangiles.tools.sitebuilder.templates;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A template that has been parsed once into literal chunks and {@code ${field}} slots. Rendering walks the segments
+ * once and writes into a single buffer, rather than running a regex replacement over the whole page for each field.
+ */
+public final class Template {
+    private static final String SLOT_START = "${";
+    private static final char SLOT_END = '}';
+
+    // there is always one more literal than there are fields - literals[i] comes before fields[i]
+    private final String[] literals;
+    private final String[] fields;
+    private final int literalLength;
+
+    private Template(final List<String> literals, final List<String> fields) {
+        this.literals = literals.toArray(new String[0]);
+        this.fields = fields.toArray(new String[0]);
+
+        int length = 0;
+        for (String literal : this.literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    public static Template compile(final String source) {
+        final List<String> literals = new ArrayList<>();
+        final List<String> fields = new ArrayList<>();
+
+        int literalStart = 0;
+        int pos = 0;
+        while (true) {
+            int start = source.indexOf(SLOT_START, pos);
+            if (start < 0) {
+                break;
+            }
+            final int end = source.indexOf(SLOT_END, start + SLOT_START.length());
+            if (end < 0) {
+                break;
+            }
+
+            // for input such as '${a ${b}', only '${b}' is a slot - the rest is literal text
+            start = source.lastIndexOf(SLOT_START, end);
+
+            literals.add(source.substring(literalStart, start));
+            fields.add(source.substring(start + SLOT_START.length(), end));
+            literalStart = pos = end + 1;
+        }
+        literals.add(source.substring(literalStart));
+
+        return new Template(literals, fields);
+    }
+
+    /**
+     * Returns the names of all fields referenced by this template, in the order they first appear.
+     */
+    public Set<String> getFields() {
+        final Set<String> set = new LinkedHashSet<>();
+        Collections.addAll(set, fields);
+        return set;
+    }
+
+    /**
+     * Renders the template, asking the given function for the value of each slot. Slots for which the function
+     * returns null are left in the output untouched, as the old regex-based templating did.
+     */
+    public String render(final Function<String, String> values) {
+        final String[] data = new String[fields.length];
+        int length = literalLength;
+        for (int i = 0; i < fields.length; i++) {
+            final String value = values.apply(fields[i]);
+            data[i] = value;
+            length += value == null ? fields[i].length() + SLOT_START.length() + 1 : value.length();
+        }
+
+        final StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < fields.length; i++) {
+            sb.append(literals[i]);
+            if (data[i] == null) {
+                sb.append(SLOT_START).append(fields[i]).append(SLOT_END);
+            } else {
+                sb.append(data[i]);
+            }
+        }
+        sb.append(literals[fields.length]);
+        return sb.toString();
+    }
+
+    /**
+     * Renders the template straight into the given writer, so that the page never has to exist as a single string.
+     * Slots for which the function returns null are written untouched, as with {@link #render(Function)}.
+     */
+    public void render(final Function<String, String> values, final Writer out) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            out.write(literals[i]);
+            final String value = values.apply(fields[i]);
+            if (value == null) {
+                out.write(SLOT_START);
+                out.write(fields[i]);
+                out.write(SLOT_END);
+            } else {
+                out.write(value);
+            }
+        }
+        out.write(literals[fields.length]);
+    }
+}
@@ -0,0 +1,33 @@
+package net.jonathangiles.tools.sitebuilder.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+public class BuildExecutors {
+    private BuildExecutors() { }
+
+    /**
+     * Creates the executor used for parallel builds when none has been configured. When running on JDK 21 or later,
+     * this is an executor that starts a virtual thread per task, otherwise it is a ForkJoinPool sized to the number
+     * of available processors. The caller is responsible for shutting it down.
+     */
+    public static ExecutorService newDefaultExecutor() {
+        final ExecutorService virtualThreadExecutor = newVirtualThreadExecutor();
+        return virtualThreadExecutor != null ? virtualThreadExecutor : new ForkJoinPool();
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread per task, or returns null if the running JDK does not have
+     * virtual threads. Reflection is used as we are compiled against an older release.
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
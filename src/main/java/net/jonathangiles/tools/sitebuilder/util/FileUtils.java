@@ -1,29 +1,244 @@
 package net.jonathangiles.tools.sitebuilder.util;
 
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
 
+import net.jonathangiles.tools.sitebuilder.build.OutputIndex;
+
+import static net.jonathangiles.tools.sitebuilder.SiteBuilder.OUTPUT_DIR;
 import static net.jonathangiles.tools.sitebuilder.util.SitePaths.createRelativePath;
 
 public class FileUtils {
     private FileUtils() { }
 
     public static Path getPath(String path, ClassLoader loader) {
-        return new File(loader.getResource(path).getFile()).toPath();
+        return SourceFiles.getClasspathPath(path, loader);
     }
 
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
     public static void writeToFile(final Path file, final String content) {
         try {
-            Files.write(file, content.getBytes());
+            writeToFile(file, out -> out.write(content));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Writes a file as UTF-8, by handing a buffered writer to the given consumer. The content is written to a
+     * temporary file next to the target, which is then renamed over the target, so that the target never contains a
+     * partially written file, even if the build crashes part way through.
+     */
+    public static void writeToFile(final Path file, final IOConsumer<Writer> content) throws IOException {
+        final Path tempFile = createTempSibling(file);
+        try {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(tempFile, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE),
+                    StandardCharsets.UTF_8), WRITE_BUFFER_SIZE)) {
+                content.accept(out);
+            }
+            moveAtomically(tempFile, file);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Writes a file as {@link #writeToFile(Path, IOConsumer)} does, but leaves the target untouched (keeping its
+     * modification time) if it already has exactly the same content. The new content is checksummed (with CRC32C) as it
+     * is rendered into memory, and compared with the checksum of the existing file recorded in the given index, so that
+     * nothing is written to disk, and the existing file is not read, unless the content has changed. If the index does
+     * not know the existing file (or it has been changed since), the file is compared byte for byte instead. The index
+     * may be null. Content too large to keep in memory is written to a temporary file as it is rendered.
+     */
+    public static WriteResult writeToFileIfChanged(final Path file,
+                                                   final IOConsumer<Writer> content,
+                                                   final OutputIndex index) throws IOException {
+        final CRC32C crc = new CRC32C();
+        final OutputBuffer buffer = new OutputBuffer(file);
+        try {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new CheckedOutputStream(buffer, crc),
+                    StandardCharsets.UTF_8), WRITE_BUFFER_SIZE)) {
+                content.accept(out);
+            }
+            final long checksum = crc.getValue();
+            final long size = buffer.size();
+            final String hash = Long.toHexString(checksum);
+
+            if (isIdentical(file, checksum, size, buffer, index)) {
+                return new WriteResult(false, hash, size);
+            }
+            buffer.moveTo(file);
+            if (index != null) {
+                index.put(file, new OutputIndex.Output(checksum, size, Files.getLastModifiedTime(file).toMillis()));
+            }
+            return new WriteResult(true, hash, size);
+        } finally {
+            buffer.discard();
+        }
+    }
+
+    private static boolean isIdentical(final Path file, final long checksum, final long size,
+                                       final OutputBuffer buffer, final OutputIndex index) throws IOException {
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        // files of a different size can not be identical
+        if (!attributes.isRegularFile() || attributes.size() != size) {
+            return false;
+        }
+
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        final OutputIndex.Output known = index == null ? null : index.get(file);
+        if (known != null && known.isCurrent(size, lastModified)) {
+            return known.getChecksum() == checksum;
+        }
+        if (buffer.contentEquals(file)) {
+            if (index != null) {
+                index.put(file, new OutputIndex.Output(checksum, size, lastModified));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Creates an empty temporary file in the same directory as the given file, so that it can later be renamed over
+     * the file. Each call gets a new, random name, so that concurrent writes do not clash, and so that a file left
+     * behind by a build that was killed part way through does not get in the way of later builds. Unlike
+     * {@link Files#createTempFile}, the file is given the default permissions, which it keeps when it is renamed.
+     */
+    public static Path createTempSibling(final Path file) throws IOException {
+        while (true) {
+            final Path tempFile = file.resolveSibling("." + file.getFileName() + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                return Files.createFile(tempFile);
+            } catch (FileAlreadyExistsException e) {
+                // try again with another name
+            }
+        }
+    }
+
+    public static void moveAtomically(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // holds content in memory as it is written, until it grows too large to, when it is moved into a temporary file
+    // next to the target, so that a file is only created for content that is either large or is going to be written
+    private static final class OutputBuffer extends OutputStream {
+        private static final int MAX_IN_MEMORY = 1024 * 1024;
+
+        private final Path target;
+        private byte[] bytes = new byte[WRITE_BUFFER_SIZE];
+        private int count;
+        private Path tempFile;
+        private OutputStream out;
+        private long size;
+
+        OutputBuffer(Path target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            size += len;
+            if (out == null && count + len > MAX_IN_MEMORY) {
+                tempFile = createTempSibling(target);
+                out = new BufferedOutputStream(Files.newOutputStream(tempFile,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), WRITE_BUFFER_SIZE);
+                out.write(bytes, 0, count);
+                bytes = null;
+            }
+            if (out != null) {
+                out.write(b, off, len);
+                return;
+            }
+            if (count + len > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.min(Math.max(bytes.length * 2, count + len), MAX_IN_MEMORY));
+            }
+            System.arraycopy(b, off, bytes, count, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.close();
+            }
+        }
+
+        long size() {
+            return size;
+        }
+
+        // compares the content with the given file, which is the same size
+        boolean contentEquals(final Path file) throws IOException {
+            try (InputStream existing = new BufferedInputStream(Files.newInputStream(file), WRITE_BUFFER_SIZE);
+                 InputStream content = tempFile != null
+                         ? new BufferedInputStream(Files.newInputStream(tempFile), WRITE_BUFFER_SIZE)
+                         : new ByteArrayInputStream(bytes, 0, count)) {
+                final byte[] a = new byte[WRITE_BUFFER_SIZE];
+                final byte[] b = new byte[WRITE_BUFFER_SIZE];
+                int read;
+                while ((read = content.readNBytes(a, 0, a.length)) > 0) {
+                    if (existing.readNBytes(b, 0, read) != read || !Arrays.equals(a, 0, read, b, 0, read)) {
+                        return false;
+                    }
+                }
+                return existing.read() < 0;
+            }
+        }
+
+        void moveTo(final Path file) throws IOException {
+            if (tempFile == null) {
+                tempFile = createTempSibling(file);
+                Files.write(tempFile, Arrays.copyOf(bytes, count), StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            moveAtomically(tempFile, file);
+        }
+
+        void discard() throws IOException {
+            if (tempFile != null) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
     public static void copyFile(final Path basePath, final Path file) {
         try {
             final Path newPath = createRelativePath(basePath, file);
@@ -35,14 +250,35 @@ public class FileUtils {
         }
     }
 
-    public static String readFile(final Path file) {
-        final StringBuilder sb = new StringBuilder();
-        try {
-            Files.lines(file, StandardCharsets.UTF_8)
-                    .forEach(line -> sb.append(line).append("\n"));
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Deletes a file from the output directory, along with its precompressed copy (if any) and any directories above
+     * it that are left empty.
+     */
+    public static void deleteOutput(final Path file) throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".gz"));
+
+        final Path outputDir = OUTPUT_DIR.toPath().toAbsolutePath();
+        Path dir = file.toAbsolutePath().getParent();
+        while (dir != null && dir.startsWith(outputDir) && !dir.equals(outputDir) && isEmptyDirectory(dir)) {
+            Files.delete(dir);
+            dir = dir.getParent();
         }
-        return sb.toString();
+    }
+
+    private static boolean isEmptyDirectory(final Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return false;
+        }
+        try (Stream<Path> entries = Files.list(dir)) {
+            return !entries.findAny().isPresent();
+        }
+    }
+
+    /**
+     * Reads the given file as UTF-8, exactly as it is on disk.
+     */
+    public static String readFile(final Path file) {
+        return SourceFiles.readString(file);
     }
 }
@@ -0,0 +1,11 @@
+package net.jonathangiles.tools.sitebuilder.util;
+
+import java.io.IOException;
+
+/**
+ * A consumer that may throw an {@link IOException}, such as code that writes a page to an output stream.
+ */
+@FunctionalInterface
+public interface IOConsumer<T> {
+    void accept(T t) throws IOException;
+}
@@ -26,6 +26,18 @@ public class SitePaths {
         return pathStr.substring(pathStr.indexOf(OUTPUT_PATH+"/") + OUTPUT_PATH.length() + 1);
     }
 
+    /**
+     * Returns the absolute URL of the given content on the site at the given URL. Pages written as index.html files
+     * are addressed by their directory.
+     */
+    public static String createUrl(final String siteUrl, final SiteContent content) {
+        String path = createRelativePath(content.getFullOutputPath()).replace(File.separatorChar, '/');
+        if (path.equals("index.html") || path.endsWith("/index.html")) {
+            path = path.substring(0, path.length() - "index.html".length());
+        }
+        return (siteUrl.endsWith("/") ? siteUrl : siteUrl + "/") + path;
+    }
+
 //    /**
 //     * This method will recreate the input directory structure in the output directory. It is designed with the assumption
 //     * that each post will create a single index.html file, and therefore assumes that the directory structure has one
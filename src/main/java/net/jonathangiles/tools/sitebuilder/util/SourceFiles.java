@@ -0,0 +1,204 @@
+package net.jonathangiles.tools.sitebuilder.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Reads the site's input files (pages, posts and templates), which are always UTF-8. Whole files are read with a single
+ * bulk read and decode, into a buffer taken from a small shared pool for small files, or from a memory mapping for large
+ * ones. The pool is shared rather than kept per thread, as builds may run on virtual threads, which are never reused.
+ * Inputs may live on the file system, or on the classpath (including inside a jar).
+ */
+public final class SourceFiles {
+    // files of at least this size are memory mapped, rather than read into a buffer
+    private static final int MAP_THRESHOLD = 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+    // read buffers that are not in use, which grow as needed up to the size at which files are mapped instead. At most
+    // one buffer per processor is kept, as no more than that are normally in use at once
+    private static final int MAX_POOLED_BUFFERS = Runtime.getRuntime().availableProcessors();
+    private static final Queue<ByteBuffer> BUFFERS = new ConcurrentLinkedQueue<>();
+
+    private SourceFiles() { }
+
+    /**
+     * Returns the path of the given directory (or file) on the classpath. Resources inside a jar are returned as paths
+     * in the jar's file system, which is opened the first time it is needed and then left open.
+     */
+    public static Path getClasspathPath(final String path, final ClassLoader loader) {
+        final URL url = loader.getResource(path);
+        if (url == null) {
+            throw new IllegalArgumentException("Could not find " + path + " on the classpath");
+        }
+        try {
+            final URI uri = url.toURI();
+            if (uri.getScheme().equals("jar")) {
+                try {
+                    FileSystems.newFileSystem(uri, Map.of());
+                } catch (FileSystemAlreadyExistsException e) {
+                    // another root in the same jar has already opened it
+                }
+            }
+            return Paths.get(uri);
+        } catch (URISyntaxException | IOException e) {
+            throw new IllegalArgumentException("Could not resolve " + url, e);
+        }
+    }
+
+    /**
+     * Reads the whole of the given file as UTF-8.
+     */
+    public static String readString(final Path file) {
+        return readString(file, 0);
+    }
+
+    /**
+     * Reads the given file as UTF-8, from the given offset (in bytes) to the end.
+     */
+    public static String readString(final Path file, final long offset) {
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            final long size = Math.max(channel.size() - offset, 0);
+            if (size >= MAP_THRESHOLD && channel instanceof FileChannel) {
+                return decode(((FileChannel) channel).map(FileChannel.MapMode.READ_ONLY, offset, size));
+            }
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("File is too large: " + file);
+            }
+
+            final boolean pooled = size <= MAP_THRESHOLD;
+            final ByteBuffer buffer = pooled ? acquireBuffer((int) size) : ByteBuffer.allocate((int) size);
+            try {
+                channel.position(offset);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading until the buffer is full, or the file ends
+                }
+                return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+            } finally {
+                if (pooled) {
+                    releaseBuffer(buffer);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Opens the given file for reading a little at a time, such as when only its front matter is needed.
+     */
+    public static InputStream newInputStream(final Path file) throws IOException {
+        return new BufferedInputStream(Files.newInputStream(file), STREAM_BUFFER_SIZE);
+    }
+
+    /**
+     * Opens the given file for reading a little at a time, from the given offset (in bytes) for the given number of
+     * bytes, or to the end of the file if the length is negative.
+     */
+    public static InputStream newInputStream(final Path file, final long offset, final long length)
+            throws IOException {
+        final SeekableByteChannel channel = Files.newByteChannel(file);
+        try {
+            channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        final InputStream in = Channels.newInputStream(channel);
+        return new BufferedInputStream(length < 0 ? in : new FilterInputStream(in) {
+            private long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                final int b = in.read();
+                if (b >= 0) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                final int read = in.read(b, off, (int) Math.min(len, remaining));
+                if (read > 0) {
+                    remaining -= read;
+                }
+                return read;
+            }
+        }, STREAM_BUFFER_SIZE);
+    }
+
+    /**
+     * Opens the given file for reading as UTF-8, a little at a time, from the given offset (in bytes) to the end.
+     * Malformed input is replaced, as {@link #readString(Path, long)} does.
+     */
+    public static Reader newReader(final Path file, final long offset) throws IOException {
+        return new InputStreamReader(newInputStream(file, offset, -1), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Opens the given file for reading a line at a time, as UTF-8.
+     */
+    public static BufferedReader newReader(final Path file) throws IOException {
+        return new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8),
+                STREAM_BUFFER_SIZE);
+    }
+
+    // takes a buffer from the pool (or a new one, if none are free), cleared and limited to the given size. A buffer
+    // that is too small is replaced by a larger one
+    private static ByteBuffer acquireBuffer(final int size) {
+        ByteBuffer buffer = BUFFERS.poll();
+        if (buffer == null || buffer.capacity() < size) {
+            final int capacity = Math.max(INITIAL_BUFFER_SIZE, Integer.highestOneBit(Math.max(size - 1, 1)) << 1);
+            buffer = ByteBuffer.allocate(Math.min(capacity, MAP_THRESHOLD));
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    // returns a buffer to the pool, unless the pool is already full. The count is approximate, which is good enough
+    private static void releaseBuffer(final ByteBuffer buffer) {
+        if (BUFFERS.size() < MAX_POOLED_BUFFERS) {
+            BUFFERS.offer(buffer);
+        }
+    }
+
+    // decodes a mapped file, replacing malformed input as new String(bytes, UTF_8) does
+    private static String decode(final ByteBuffer bytes) throws IOException {
+        return StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(bytes)
+                .toString();
+    }
+}
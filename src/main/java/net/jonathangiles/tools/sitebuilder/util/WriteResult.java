@@ -0,0 +1,29 @@
+package net.jonathangiles.tools.sitebuilder.util;
+
+/**
+ * The outcome of writing an output file: whether it was actually written (or was left untouched because it already
+ * had identical content), and the hash and size of its content.
+ */
+public final class WriteResult {
+    private final boolean written;
+    private final String hash;
+    private final long size;
+
+    public WriteResult(boolean written, String hash, long size) {
+        this.written = written;
+        this.hash = hash;
+        this.size = size;
+    }
+
+    public boolean isWritten() {
+        return written;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+}